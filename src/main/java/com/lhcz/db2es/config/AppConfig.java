@@ -1,11 +1,13 @@
 package com.lhcz.db2es.config;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * 应用配置记录类
  */
-public record AppConfig(DbConfig db, EsConfig es, WebConfig web, List<TaskConfig> tasks) {
+public record AppConfig(DbConfig db, EsConfig es, WebConfig web, List<TaskConfig> tasks, ClusterConfig cluster,
+                        ChannelConfig channel, LagConfig lag, ReadConfig read, TraceConfig trace) {
 
     // 🟢 修改：增加了连接池相关配置
     public record DbConfig(
@@ -15,13 +17,103 @@ public record AppConfig(DbConfig db, EsConfig es, WebConfig web, List<TaskConfig
             Integer maxLifetimeMs,  // 最大存活时间
             Integer idleTimeoutMs,  // 空闲回收时间
             Integer minIdle,        // 最小空闲连接数
-            Integer maxPoolSize     // 最大连接数
+            Integer maxPoolSize,    // 最大连接数
+            List<String> replicaUrls,   // 🟢 新增：只读副本 (每个副本独立连接池，使用相同账号与连接池参数)
+            Integer replicaLagCheckMs   // 🟢 新增：副本延迟采样间隔 (默认 5000)
     ) {}
 
-    public record EsConfig(String url, String user, String password, int batchSize, int flushIntervalMs) {}
+    public record EsConfig(
+            String url,
+            String user,
+            String password,
+            int batchSize,
+            int flushIntervalMs,
+            List<String> urls,            // 🟢 新增：多个协调节点地址 (配置后优先于 url)
+            Integer maxInFlightPerNode,   // 单节点最大在途 bulk 请求数，默认 4
+            Integer healthCheckIntervalMs, // 节点健康检查间隔，默认 5000ms
+            String format,                // 🟢 新增：文档编码 json (默认) / smile (二进制，bulk 以 application/smile 发送)
+            Boolean precreateIndices,     // 🟢 新增：提前创建当前及下一周期的按日期索引，默认 true
+            Integer statsPersistIntervalMs // 🟢 新增：每日统计保存间隔，默认 5000ms (不再每批次保存)
+    ) {
+        /**
+         * 写入目标的 es 配置按字段覆盖顶层配置：未配置 (为空或 <= 0) 的字段沿用顶层值
+         * 地址 (url/urls) 与账号 (user/password) 分别整组覆盖，避免混用两个集群的地址或凭据
+         */
+        public EsConfig mergedOver(EsConfig base) {
+            boolean hosts = url != null || (urls != null && !urls.isEmpty());
+            boolean auth = user != null;
+            return new EsConfig(
+                    hosts ? url : base.url(),
+                    auth ? user : base.user(),
+                    auth ? password : base.password(),
+                    batchSize > 0 ? batchSize : base.batchSize(),
+                    flushIntervalMs > 0 ? flushIntervalMs : base.flushIntervalMs(),
+                    hosts ? urls : base.urls(),
+                    maxInFlightPerNode != null ? maxInFlightPerNode : base.maxInFlightPerNode(),
+                    healthCheckIntervalMs != null ? healthCheckIntervalMs : base.healthCheckIntervalMs(),
+                    format != null ? format : base.format(),
+                    precreateIndices != null ? precreateIndices : base.precreateIndices(),
+                    statsPersistIntervalMs != null ? statsPersistIntervalMs : base.statsPersistIntervalMs());
+        }
+    }
 
     // 🟢 新增：Web 控制台配置
-    public record WebConfig(Integer port) {}
+    public record WebConfig(
+            Integer port,
+            Integer metricsResolutionMs,   // 🟢 吞吐曲线采样间隔，默认 5000ms
+            Integer metricsHistoryMinutes  // 吞吐曲线保留时长，默认 180 分钟
+    ) {}
+
+    // 🟢 新增：Source -> Sink 通道配置 (按字节背压)
+    public record ChannelConfig(
+            Integer capacity,        // 单任务通道槽位数，默认 8192
+            Long maxBytesPerTask,    // 单任务缓冲字节上限 (含正在写入的批次)，默认 64MB
+            Long globalMaxBytes,     // 所有任务共享的缓冲字节上限，为空则不限制
+            Integer repairCapacity,  // 🟢 新增：修复 (回溯) 车道槽位数，默认 capacity / 4
+            Double repairWeight,     // 🟢 新增：增量数据积压时每批为修复数据预留的比例，默认 0 (只使用剩余空间)
+            Integer repairMaxRowsPerSecond // 🟢 新增：单个写入目标修复数据的速率上限，为空则不限制
+    ) {}
+
+    // 🟢 新增：采集/回放配置 (用于离线性能测试)
+    public record TraceConfig(
+            String mode,             // capture: 采样记录读取的数据页 / replay: 从轨迹文件回放 (不连接数据库)
+            String dir,              // 轨迹文件目录，默认 traces
+            Integer sampleEvery,     // 采集：每 N 个非空页记录 1 页，默认 10
+            Long maxBytesPerFile,    // 采集：单个轨迹文件上限 (压缩后)，默认 256MB
+            List<String> anonymizeColumns, // 采集：需要脱敏的列 (同值脱敏结果相同，长度不变)
+            String speed,            // 回放：recorded (按采集时的节奏) / max (全速)，默认 recorded
+            Boolean stubSink,        // 回放：使用模拟 ES (不发送请求，直接返回成功)
+            Integer stubLatencyMs    // 回放：模拟 ES 每次 bulk 的耗时，默认 0
+    ) {}
+
+    // 🟢 新增：同步延迟监控配置
+    public record LagConfig(
+            Integer intervalMs,         // 采样间隔，默认 30000ms
+            Long alertRowsBehind,       // 落后行数告警阈值，为空则不告警
+            Long alertSecondsBehind     // 落后时间告警阈值 (秒)，需配置 timestampColumn，为空则不告警
+    ) {}
+
+    // 🟢 新增：数据库读取保护配置 (自适应页大小 + 全局限流)
+    public record ReadConfig(
+            Integer pageSize,             // 初始页大小，默认 5000
+            Integer minPageSize,          // 页大小下限，默认 500
+            Integer maxPageSize,          // 页大小上限，默认 20000
+            Integer targetQueryLatencyMs, // 目标查询耗时，超过则缩小页并退避，默认 500ms
+            Integer maxConnectionWaitMs,  // 获取连接等待上限，超过视为连接池拥塞，默认 200ms
+            Long maxRowsPerSecond,        // 所有任务合计每秒最多读取行数，为空则不限制
+            Integer maxQueriesPerSecond,  // 所有任务合计每秒最多查询次数，为空则不限制
+            Integer fetchSize             // 游标方式读取时每次从数据库取回的行数，默认 500
+    ) {}
+
+    // 🟢 新增：多实例部署配置 (通过源库中的租约表协调任务分配)
+    public record ClusterConfig(
+            Boolean enabled,
+            String instanceId,          // 实例ID，默认 主机名-进程号
+            Integer leaseTtlMs,         // 租约有效期，默认 15000ms；实例宕机后最迟在此时间后被接管
+            Integer heartbeatIntervalMs,// 心跳/续约间隔，默认 5000ms
+            String leaseTable,          // 租约表 (同时保存进度)，默认 db2es_lease
+            String instanceTable        // 实例心跳表，默认 db2es_instance
+    ) {}
 
     public record TaskConfig(
             String tableName,
@@ -30,6 +122,91 @@ public record AppConfig(DbConfig db, EsConfig es, WebConfig web, List<TaskConfig
             String columns,
             String esIndex,
             String esType,
-            long startId
+            long startId,
+            String timestampColumn,      // 数据时间列 (可选)，用于计算落后时间
+            List<LookupConfig> lookups,  // 维表关联 (可选)
+            ChangeDetectionConfig changeDetection, // 内容变更检测 (可选)
+            List<TargetConfig> targets,  // 🟢 新增：多个写入目标 (可选)，配置后忽略 esIndex/esType
+            RollupConfig rollup,         // 🟢 新增：窗口预聚合 (可选)
+            String indexDateColumn,      // 🟢 新增：索引日期列 (可选)，按该列的日期展开 #(dtmon)/#(dtday)，为空则按写入当天
+            MappingConfig mapping,       // 🟢 新增：显式 Mapping 初始化 (可选)
+            Map<String, ColumnLimitConfig> columnLimits, // 🟢 新增：大字段按列截断 (可选)，键为列名，"*" 为所有大字段的默认值
+            AppendOnlyConfig appendOnly  // 🟢 新增：只追加写入 (可选)，适用于从不更新的表
+    ) {}
+
+    /**
+     * 只追加写入：使用 create 动作代替 index，ES 走追加写入路径
+     */
+    public record AppendOnlyConfig(
+            Boolean enabled,
+            Boolean autoId,     // 由 ES 生成 _id (不发送 _id，此时不再执行回溯校验，重试可能产生重复文档)
+            Boolean dataStream  // esIndex 为数据流名称 (不发送 _type，不提前创建索引，文档需包含 @timestamp)
+    ) {}
+
+    /**
+     * 大字段限制：超出部分被截断，未配置时不截断
+     */
+    public record ColumnLimitConfig(
+            Integer maxChars,  // 文本列最多写入的字符数
+            Integer maxBytes   // 二进制列最多写入的字节数 (Base64 编码前)
+    ) {}
+
+    /**
+     * 显式 Mapping 配置：启动时根据查询结果集元数据推导字段类型，通过索引模板下发
+     */
+    public record MappingConfig(
+            Boolean enabled,
+            String dynamic,                          // 未知字段处理: false (默认，不索引) / strict (拒绝写入)
+            Integer keywordMaxLength,                // 字符串列长度不超过该值时为 keyword，否则为 text，默认 1024
+            Map<String, Map<String, Object>> fields  // 按列覆盖字段定义，如 {remark: {type: text, analyzer: ik_max_word}}
+    ) {}
+
+    /**
+     * 窗口预聚合配置：按时间窗口 + 分组列统计 count/min/max/sum，窗口关闭时写入汇总索引
+     * 用到的列必须包含在任务的 columns 中
+     */
+    public record RollupConfig(
+            String esIndex,          // 汇总索引 (支持 #(dtmon)/#(dtday))
+            String timeColumn,       // 事件时间列
+            String keyColumns,       // 分组列，逗号分隔
+            String metricColumns,    // 数值列 (可选)，逗号分隔，每列输出 _min/_max/_sum
+            Integer windowMinutes,   // 滚动窗口长度，默认 60
+            Integer graceSeconds     // 窗口结束后等待乱序数据的时间，默认 300
+    ) {}
+
+    /**
+     * 写入目标：同一份读取结果分发到多个索引/集群，每个目标独立保存进度 (表名@目标名)
+     */
+    public record TargetConfig(
+            String name,     // 目标名 (必填，用于进度键、死信文件名与监控)
+            String esIndex,
+            String esType,
+            EsConfig es,     // 写入其他集群时配置 (格式同顶层 es，未配置的字段沿用顶层 es)，为空则使用顶层 es
+            AppendOnlyConfig appendOnly // 🟢 新增：覆盖任务的只追加写入配置，为空则沿用任务配置
+    ) {}
+
+    /**
+     * 维表关联配置：按页收集外键，批量 IN 查询维表，将结果合并进文档
+     */
+    public record LookupConfig(
+            String table,            // 维表名
+            String keyColumn,        // 主表中的外键列
+            String lookupKeyColumn,  // 维表中的关联列
+            String columns,          // 维表需要带出的列，默认 *
+            String targetField,      // 写入文档的字段名，为空则平铺合并 (不覆盖主表已有字段)
+            Boolean multi,           // 一对多：聚合为嵌套数组 (必须配置 targetField)
+            Integer cacheMaxEntries, // 缓存最大条数，默认 100000
+            Long cacheTtlMs,         // 缓存过期时间，默认 600000ms (10分钟)
+            Long cacheMaxBytes       // 缓存估算内存上限，默认 64MB
+    ) {}
+
+    /**
+     * 内容变更检测配置：跳过内容未变化的文档，合并同批次重复 ID
+     */
+    public record ChangeDetectionConfig(
+            Boolean enabled,
+            Integer maxEntries,        // 指纹库最大条数，默认 10000000
+            String persistFile,        // 持久化文件路径，为空则仅保存在内存
+            Integer persistIntervalMs  // 持久化间隔，默认 60000ms
     ) {}
 }
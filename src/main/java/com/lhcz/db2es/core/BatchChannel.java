@@ -0,0 +1,220 @@
+package com.lhcz.db2es.core;
+
+import com.lhcz.db2es.model.SyncData;
+import com.lhcz.db2es.util.RateLimiter;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Source -> Sink 数据通道 (单生产者 / 单消费者环形缓冲区)
+ * 1. 无锁：生产者只写 tail，消费者只写 head，交接一条数据只需一次 volatile 写，不分配链表节点。
+ * 2. 批量取出：消费者一次调用最多取出一整批数据。
+ * 3. 按字节背压：除槽位数外，还按数据估算字节数限流 (单任务上限 + 可选的全局共享预算)，
+ *    字节在 Sink 写完 ES 后才释放，因此 预算 = 通道内数据 + 正在写入的批次。
+ * 4. 优先级车道：增量数据 (live) 与回溯修复数据 (repair) 各用一个环形缓冲区。
+ *    取出时增量数据优先，修复数据只使用剩余的批次空间 (可按比例预留) 并受独立的速率上限约束，
+ *    大量修复数据不会再排在新数据前面。
+ * 5. 唤醒：生产者放入数据后唤醒等待中的消费者，消费者空闲时一直等待到 timeout，不再周期性轮询。
+ * 注意：只允许一个线程 put、一个线程 drainTo。
+ */
+public class BatchChannel {
+    // 生产者等待空间、或消费者等待被限速的修复数据时的最长等待 (这两种情况下释放空间 / 补充配额没有唤醒)
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Lane live;
+    private final Lane repair;
+    private final long maxBytes;
+    private final MemoryBudget globalBudget;
+    private final double repairWeight;
+    private final RateLimiter repairLimiter;
+
+    private final AtomicLong bytes = new AtomicLong(); // 已占用字节 (通道内 + 未释放的批次)
+
+    private volatile Thread waitingProducer;
+    private volatile Thread waitingConsumer;
+    // wakeConsumer 请求 drainTo 立即返回
+    private volatile boolean wakeup;
+
+    /**
+     * 单个车道的环形缓冲区
+     */
+    private static final class Lane {
+        final SyncData[] ring;
+        final int mask;
+        final AtomicLong head = new AtomicLong(); // 下一个读取位置 (消费者写)
+        final AtomicLong tail = new AtomicLong(); // 下一个写入位置 (生产者写)
+
+        Lane(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+            this.ring = new SyncData[size];
+            this.mask = size - 1;
+        }
+
+        int size() { return (int) (tail.get() - head.get()); }
+        int free() { return ring.length - size(); }
+    }
+
+    /**
+     * 两个车道容量相同，修复数据不限速 (用于只有一种数据的通道，如汇总文档)
+     */
+    public BatchChannel(int capacity, long maxBytes, MemoryBudget globalBudget) {
+        this(capacity, capacity, maxBytes, globalBudget, 0, null);
+    }
+
+    /**
+     * @param capacity       增量车道槽位数 (向上取整为 2 的幂)
+     * @param repairCapacity 修复车道槽位数
+     * @param maxBytes       本通道字节上限 (两个车道共享)
+     * @param globalBudget   全局共享预算，可为 null
+     * @param repairWeight   增量数据积压时每批为修复数据预留的比例 (0 表示修复数据只使用剩余空间)
+     * @param repairLimiter  修复数据的速率上限 (行/秒)，可为 null
+     */
+    public BatchChannel(int capacity, int repairCapacity, long maxBytes, MemoryBudget globalBudget,
+                        double repairWeight, RateLimiter repairLimiter) {
+        this.live = new Lane(capacity);
+        this.repair = new Lane(repairCapacity);
+        this.maxBytes = maxBytes;
+        this.globalBudget = globalBudget;
+        this.repairWeight = Math.max(0, Math.min(1, repairWeight));
+        this.repairLimiter = repairLimiter;
+    }
+
+    /**
+     * 放入一条数据 (按 isRepair 选择车道)，通道满 (槽位或字节) 时阻塞
+     */
+    public void put(SyncData data) throws InterruptedException {
+        Lane lane = data.isRepair() ? repair : live;
+        long size = data.estimatedBytes();
+        long t = lane.tail.get();
+        // 通道为空时总是允许放入，保证单条超大数据也能通过
+        while (t - lane.head.get() >= lane.ring.length || (bytes.get() > 0 && bytes.get() + size > maxBytes)) {
+            parkProducer();
+        }
+        if (globalBudget != null) globalBudget.acquire(size);
+
+        bytes.addAndGet(size);
+        lane.ring[(int) (t & lane.mask)] = data;
+        lane.tail.set(t + 1); // volatile 写，发布数据给消费者
+
+        Thread consumer = waitingConsumer;
+        if (consumer != null) LockSupport.unpark(consumer);
+    }
+
+    /**
+     * 修复车道是否能无阻塞地放入 rows 条数据 (槽位足够，且字节占用不超过上限的一半，给增量数据留出空间)
+     * 生产者据此决定是否读取下一页修复数据，避免因修复数据积压阻塞增量读取
+     */
+    public boolean hasRepairRoom(int rows) {
+        return repair.free() >= rows && bytes.get() < maxBytes / 2;
+    }
+
+    public int getRepairCapacity() { return repair.ring.length; }
+
+    /**
+     * 批量取出数据，增量数据优先；通道为空 (或只有被限速的修复数据) 时最多等待 timeout
+     * 通道为空时只由 put 或 wakeConsumer 唤醒 (放入数据前先发布 tail、再读取 waitingConsumer，
+     * 与这里先发布 waitingConsumer、再检查 tail 配对，不会错过唤醒)
+     * @return 取出的条数 (超时或被 wakeConsumer 唤醒时为 0)
+     */
+    public int drainTo(List<SyncData> out, int max, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = 0;
+        while (true) {
+            int liveAvailable = live.size();
+            int repairAvailable = repair.size();
+            // 增量数据积压时，按比例为修复数据预留空间，避免修复数据长期饿死
+            int reserved = liveAvailable > 0 ? Math.min(repairAvailable, (int) (max * repairWeight)) : 0;
+            int nLive = Math.min(liveAvailable, max - reserved);
+            int nRepair = Math.min(repairAvailable, max - nLive);
+            if (nRepair > 0 && repairLimiter != null) {
+                nRepair = (int) repairLimiter.tryAcquire(nRepair);
+            }
+
+            if (nLive + nRepair > 0) {
+                take(live, out, nLive);
+                take(repair, out, nRepair);
+                wakeProducer();
+                return nLive + nRepair;
+            }
+
+            if (deadline == 0) deadline = System.nanoTime() + unit.toNanos(timeout);
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || wakeup) {
+                wakeup = false;
+                return 0;
+            }
+            waitingConsumer = Thread.currentThread();
+            if (live.size() == 0 && !wakeup) {
+                if (repair.size() == 0) {
+                    LockSupport.parkNanos(this, remaining);
+                } else if (repairLimiter != null) {
+                    // 修复数据被限速，配额补充后没有唤醒，短暂等待后重试
+                    LockSupport.parkNanos(this, Math.min(remaining, MAX_PARK_NANOS));
+                }
+            }
+            waitingConsumer = null;
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    /**
+     * 让正在等待 (或下一次进入等待) 的 drainTo 立即返回，用于停止消费者
+     */
+    public void wakeConsumer() {
+        wakeup = true;
+        Thread consumer = waitingConsumer;
+        if (consumer != null) LockSupport.unpark(consumer);
+    }
+
+    private static void take(Lane lane, List<SyncData> out, int n) {
+        if (n == 0) return;
+        long h = lane.head.get();
+        for (int i = 0; i < n; i++) {
+            int idx = (int) ((h + i) & lane.mask);
+            out.add(lane.ring[idx]);
+            lane.ring[idx] = null;
+        }
+        lane.head.set(h + n);
+    }
+
+    /**
+     * 批次写入完成后释放其占用的字节
+     */
+    public void release(long size) {
+        if (size <= 0) return;
+        bytes.addAndGet(-size);
+        if (globalBudget != null) globalBudget.release(size);
+        wakeProducer();
+    }
+
+    private void parkProducer() throws InterruptedException {
+        waitingProducer = Thread.currentThread();
+        LockSupport.parkNanos(this, MAX_PARK_NANOS);
+        waitingProducer = null;
+        if (Thread.interrupted()) throw new InterruptedException();
+    }
+
+    private void wakeProducer() {
+        Thread producer = waitingProducer;
+        if (producer != null) LockSupport.unpark(producer);
+    }
+
+    /**
+     * 通道中待消费的条数 (两个车道合计)
+     */
+    public int size() {
+        return live.size() + repair.size();
+    }
+
+    /**
+     * 修复车道中待消费的条数
+     */
+    public int repairSize() {
+        return repair.size();
+    }
+
+    public long getBytes() { return bytes.get(); }
+    public long getMaxBytes() { return maxBytes; }
+}
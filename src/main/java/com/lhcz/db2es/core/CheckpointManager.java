@@ -7,6 +7,8 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 
 public class CheckpointManager {
@@ -24,6 +26,13 @@ public class CheckpointManager {
         load();
     }
 
+    /**
+     * 供子类使用 (进度不保存在本地文件时)
+     */
+    protected CheckpointManager(boolean loadLocalFile) {
+        if (loadLocalFile) load();
+    }
+
     private void load() {
         try (FileInputStream in = new FileInputStream(FILE_NAME)) {
             props.load(in);
@@ -34,7 +43,7 @@ public class CheckpointManager {
     }
 
     public long getStartId(String tableName, long configStartId) {
-        String val = props.getProperty(tableName);
+        String val = getProperty(tableName, tableName);
         if (val != null && !val.isBlank()) {
             return Long.parseLong(val);
         }
@@ -43,7 +52,7 @@ public class CheckpointManager {
 
     // 🟢 新增：获取回溯起始 ID
     public long getRewindId(String tableName, long defaultVal) {
-        String val = props.getProperty(tableName + ".rewind");
+        String val = getProperty(tableName, tableName + ".rewind");
         if (val != null && !val.isBlank()) {
             return Long.parseLong(val);
         }
@@ -52,7 +61,7 @@ public class CheckpointManager {
 
     // 🟢 新增：获取每日统计 (带日期检查，跨天自动归零)
     public DailyStats getDailyStats(String tableName) {
-        String savedDate = props.getProperty(tableName + ".stats.date");
+        String savedDate = getProperty(tableName, tableName + ".stats.date");
         String today = LocalDate.now().toString();
 
         // 如果日期不一致（或者是新的一天），返回归零的统计
@@ -60,33 +69,52 @@ public class CheckpointManager {
             return new DailyStats(0, 0, 0, today);
         }
 
-        long created = Long.parseLong(props.getProperty(tableName + ".stats.created", "0"));
-        long updated = Long.parseLong(props.getProperty(tableName + ".stats.updated", "0"));
-        long failed = Long.parseLong(props.getProperty(tableName + ".stats.failed", "0"));
+        long created = parseLong(getProperty(tableName, tableName + ".stats.created"));
+        long updated = parseLong(getProperty(tableName, tableName + ".stats.updated"));
+        long failed = parseLong(getProperty(tableName, tableName + ".stats.failed"));
 
         return new DailyStats(created, updated, failed, today);
     }
 
-    public synchronized void save(String tableName, Checkpoint checkpoint) {
-        props.setProperty(tableName, String.valueOf(checkpoint.idVal));
-        saveToFile();
+    public void save(String tableName, Checkpoint checkpoint) {
+        setProperties(tableName, Map.of(tableName, String.valueOf(checkpoint.idVal)));
     }
 
     // 🟢 新增：单独保存回溯进度
-    public synchronized void saveRewind(String tableName, long rewindId) {
-        props.setProperty(tableName + ".rewind", String.valueOf(rewindId));
-        saveToFile();
+    public void saveRewind(String tableName, long rewindId) {
+        setProperties(tableName, Map.of(tableName + ".rewind", String.valueOf(rewindId)));
     }
 
     // 🟢 新增：保存每日统计
-    public synchronized void saveDailyStats(String tableName, DailyStats stats) {
-        props.setProperty(tableName + ".stats.date", stats.date());
-        props.setProperty(tableName + ".stats.created", String.valueOf(stats.created()));
-        props.setProperty(tableName + ".stats.updated", String.valueOf(stats.updated()));
-        props.setProperty(tableName + ".stats.failed", String.valueOf(stats.failed()));
+    public void saveDailyStats(String tableName, DailyStats stats) {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put(tableName + ".stats.date", stats.date());
+        values.put(tableName + ".stats.created", String.valueOf(stats.created()));
+        values.put(tableName + ".stats.updated", String.valueOf(stats.updated()));
+        values.put(tableName + ".stats.failed", String.valueOf(stats.failed()));
+        setProperties(tableName, values);
+    }
+
+    /**
+     * 读取进度项
+     * @param task 所属任务 (表名)，子类可据此定位存储位置
+     */
+    protected String getProperty(String task, String key) {
+        return props.getProperty(key);
+    }
+
+    /**
+     * 写入进度项并持久化 (加锁由实现决定，子类可按任务加锁或延迟写入)
+     */
+    protected synchronized void setProperties(String task, Map<String, String> values) {
+        values.forEach(props::setProperty);
         saveToFile();
     }
 
+    private static long parseLong(String val) {
+        return (val != null && !val.isBlank()) ? Long.parseLong(val) : 0L;
+    }
+
     private void saveToFile() {
         try (FileOutputStream out = new FileOutputStream(FILE_NAME)) {
             props.store(out, "Db2Es 数据同步进度");
@@ -0,0 +1,143 @@
+package com.lhcz.db2es.core;
+
+import com.lhcz.db2es.config.AppConfig;
+import com.lhcz.db2es.util.LongLongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * 文档内容指纹库 (变更检测)
+ * 记录每个 esIdVal 最近一次成功写入 ES 的内容哈希，用于跳过未变化的文档。
+ * key/value 均为 64 位哈希，存放在堆外的开放寻址表中，千万级文档约占用 256MB 堆外内存。
+ * 持久化由后台线程 (StatsPersister) 执行：加锁期间只把表复制到复用的快照 (内存复制)，写文件在锁外进行，
+ * 不阻塞 Sink 的查询与记录；快照使堆外内存占用翻倍。
+ */
+public class ContentHashStore {
+    private static final Logger log = LoggerFactory.getLogger(ContentHashStore.class);
+
+    // 单表槽位上限 2^26 (1GB)，对应约 4500 万条
+    private static final int MAX_ENTRIES_LIMIT = 45_000_000;
+
+    private final String name;
+    private final int maxEntries;
+    private final Path persistFile;
+    private final long persistIntervalMs;
+    private final LongLongHashMap map;
+
+    private boolean dirty;
+    private volatile long lastPersistTime = System.currentTimeMillis();
+    // 持久化快照 (复用，首次持久化时分配)，由 persistLock 保护
+    private LongLongHashMap snapshot;
+    private final Object persistLock = new Object();
+
+    public ContentHashStore(String name, AppConfig.ChangeDetectionConfig config) {
+        this.name = name;
+        int configured = config.maxEntries() != null ? config.maxEntries() : 10_000_000;
+        this.maxEntries = Math.min(configured, MAX_ENTRIES_LIMIT);
+        this.persistFile = (config.persistFile() != null && !config.persistFile().isBlank())
+                ? Paths.get(config.persistFile()) : null;
+        this.persistIntervalMs = config.persistIntervalMs() != null ? config.persistIntervalMs() : 60000L;
+        this.map = new LongLongHashMap(1 << 16, true);
+
+        if (persistFile != null) {
+            try {
+                if (map.loadFrom(persistFile)) {
+                    log.info("已加载内容指纹库 [{}]: {} 条, 文件: {}", name, map.size(), persistFile);
+                }
+            } catch (Exception e) {
+                log.warn("⚠️ 加载内容指纹库 [{}] 失败，将重新构建: {}", name, e.getMessage());
+                map.clear();
+            }
+        }
+    }
+
+    /**
+     * 判断文档内容与上次写入是否一致
+     */
+    public synchronized boolean isUnchanged(String esIdVal, long contentHash) {
+        return map.get(hash(esIdVal), 0) == contentHash;
+    }
+
+    /**
+     * 记录写入成功的文档内容哈希
+     */
+    public synchronized void record(String esIdVal, long contentHash) {
+        if (map.size() >= maxEntries) {
+            // 超出容量时整体清空：最坏情况只是重新写入一遍未变化的文档，不会漏数据
+            log.warn("⚠️ 内容指纹库 [{}] 已达上限 {} 条，清空后重新积累", name, maxEntries);
+            map.clear();
+        }
+        map.put(hash(esIdVal), contentHash);
+        dirty = true;
+    }
+
+    /**
+     * 按时间间隔持久化到磁盘 (由 StatsPersister 后台线程周期调用)
+     */
+    public void persistIfDue() {
+        if (persistFile != null && System.currentTimeMillis() - lastPersistTime >= persistIntervalMs) {
+            persist();
+        }
+    }
+
+    public void persist() {
+        lastPersistTime = System.currentTimeMillis();
+        if (persistFile == null) return;
+        synchronized (persistLock) {
+            synchronized (this) {
+                if (!dirty) return;
+                if (snapshot == null) snapshot = new LongLongHashMap(16, true);
+                map.copyTo(snapshot);
+                dirty = false;
+            }
+            try {
+                snapshot.saveTo(persistFile);
+            } catch (Exception e) {
+                synchronized (this) {
+                    dirty = true;
+                }
+                log.warn("⚠️ 保存内容指纹库 [{}] 失败: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    public synchronized int size() { return map.size(); }
+    public synchronized long memoryBytes() { return map.memoryBytes(); }
+
+    /**
+     * 64 位字符串哈希 (FNV-1a + murmur3 fmix64 混淆)
+     */
+    public static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return finish(h);
+    }
+
+    /**
+     * 二进制文档 (SMILE) 的内容指纹
+     */
+    public static long hash(byte[] b) {
+        long h = 0xcbf29ce484222325L;
+        for (byte v : b) {
+            h ^= v & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return finish(h);
+    }
+
+    private static long finish(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        // 0 保留为“无记录”
+        return h == 0 ? 1 : h;
+    }
+}
@@ -2,6 +2,7 @@ package com.lhcz.db2es.core;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.lhcz.db2es.model.SyncData;
+import com.lhcz.db2es.util.JsonUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,7 +45,12 @@ public class DeadLetterQueueManager {
 
         try {
             File file = new File(fileName);
-            mapper.writerWithDefaultPrettyPrinter().writeValue(file, batch);
+            // SMILE 编码的文档转回 JSON，便于人工查看与补录
+            List<SyncData> readable = batch.stream()
+                    .map(d -> d.smileBody() == null ? d : new SyncData(d.idCursorVal(), d.timestampCursorVal(),
+                            d.esIdVal(), JsonUtil.smileToJson(d.smileBody()), d.isRepair(), null, d.routeDay()))
+                    .toList();
+            mapper.writerWithDefaultPrettyPrinter().writeValue(file, readable);
             log.error("💾 [补录保存] 写入失败的数据已保存到文件! 路径: {}, 原因: {}", fileName, reason);
         } catch (IOException e) {
             log.error("🚨 [严重错误] 无法保存失败数据! 数据可能永久丢失! 表: {}", tableName, e);
@@ -0,0 +1,247 @@
+package com.lhcz.db2es.core;
+
+import com.lhcz.db2es.config.AppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ES 节点池
+ * 将 bulk 请求分摊到多个协调节点：后台健康检查剔除/恢复节点，按在途请求数最少路由，限制单节点并发。
+ * 单次请求在某个节点失败 (网络异常或 502/503/504) 时，先换其他节点重试，全部节点都失败后才交给调用方计入重试次数。
+ */
+public class EsNodePool {
+    private static final Logger log = LoggerFactory.getLogger(EsNodePool.class);
+    private static final int MAX_CACHED_PATHS = 64;
+
+    static final class Node {
+        final String baseUrl;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        volatile boolean healthy = true;
+        volatile String lastError = "";
+        // 请求路径 -> URI (bulk 等固定路径不再每次拼接解析)
+        final Map<String, URI> uris = new ConcurrentHashMap<>();
+
+        Node(String baseUrl) {
+            this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        }
+
+        URI uri(String path) {
+            URI uri = uris.get(path);
+            if (uri == null) {
+                uri = URI.create(baseUrl + path);
+                // 只缓存少量路径 (如按日期创建索引的路径会不断变化)
+                if (uris.size() < MAX_CACHED_PATHS) uris.put(path, uri);
+            }
+            return uri;
+        }
+    }
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final HttpClient httpClient;
+    private final String authHeader;
+    // Content-Type -> 完整请求头 (名称/值交替)，每次请求只需一次 headers 调用
+    private final Map<String, String[]> headers = new ConcurrentHashMap<>();
+    private final int maxInFlightPerNode;
+    private final long healthCheckIntervalMs;
+    private final Object lock = new Object();
+    private volatile boolean running = true;
+
+    public EsNodePool(AppConfig.EsConfig esConfig, HttpClient httpClient) {
+        List<String> urls = (esConfig.urls() != null && !esConfig.urls().isEmpty())
+                ? esConfig.urls() : List.of(esConfig.url());
+        for (String url : urls) nodes.add(new Node(url));
+        this.httpClient = httpClient;
+        this.maxInFlightPerNode = esConfig.maxInFlightPerNode() != null ? esConfig.maxInFlightPerNode() : 4;
+        this.healthCheckIntervalMs = esConfig.healthCheckIntervalMs() != null ? esConfig.healthCheckIntervalMs() : 5000L;
+
+        // 认证头只计算一次
+        if (esConfig.user() != null && !esConfig.user().isBlank()) {
+            String auth = esConfig.user() + ":" + esConfig.password();
+            this.authHeader = "Basic " + Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
+        } else {
+            this.authHeader = null;
+        }
+        log.info("ES 节点池: {} 个节点 {}, 单节点最大并发 {}", nodes.size(), urls, maxInFlightPerNode);
+    }
+
+    /**
+     * 后台健康检查 (在虚拟线程中运行)
+     */
+    public void runHealthCheck() {
+        while (running) {
+            for (Node node : nodes) {
+                checkNode(node);
+            }
+            try {
+                Thread.sleep(healthCheckIntervalMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void checkNode(Node node) {
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder()
+                    .uri(URI.create(node.baseUrl + "/_cluster/health?local=true"))
+                    .timeout(Duration.ofSeconds(3))
+                    .GET();
+            if (authHeader != null) builder.header("Authorization", authHeader);
+            HttpResponse<Void> resp = httpClient.send(builder.build(), HttpResponse.BodyHandlers.discarding());
+            if (resp.statusCode() == 200) {
+                if (!node.healthy) log.info("💚 ES 节点恢复: {}", node.baseUrl);
+                node.healthy = true;
+            } else {
+                eject(node, "HTTP_" + resp.statusCode());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            eject(node, e.getClass().getSimpleName());
+        }
+    }
+
+    private void eject(Node node, String reason) {
+        node.lastError = reason;
+        if (node.healthy) {
+            node.healthy = false;
+            log.warn("💔 ES 节点不可用，暂时剔除: {} ({})", node.baseUrl, reason);
+        }
+    }
+
+    /**
+     * 发送 POST 请求，失败时自动切换到其他节点
+     * @return 最后一次收到的响应；所有节点都发生网络异常时抛出最后一次异常
+     */
+    public HttpResponse<String> post(String path, String contentType, HttpRequest.BodyPublisher body)
+            throws IOException, InterruptedException {
+        return send("POST", path, contentType, body);
+    }
+
+    /**
+     * 发送任意方法的请求 (如 PUT 创建索引)，节点选择与故障切换同 post
+     */
+    public HttpResponse<String> send(String method, String path, String contentType, HttpRequest.BodyPublisher body)
+            throws IOException, InterruptedException {
+        Set<Node> tried = new HashSet<>();
+        IOException lastError = null;
+        HttpResponse<String> lastResponse = null;
+
+        while (tried.size() < nodes.size()) {
+            Node node = acquire(tried);
+            tried.add(node);
+            try {
+                HttpRequest request = HttpRequest.newBuilder(node.uri(path))
+                        .headers(headers.computeIfAbsent(contentType, this::headersFor))
+                        .method(method, body)
+                        .build();
+
+                node.requests.incrementAndGet();
+                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                int code = response.statusCode();
+                if (code == 502 || code == 503 || code == 504) {
+                    // 节点级故障，换节点重试
+                    node.failures.incrementAndGet();
+                    eject(node, "HTTP_" + code);
+                    lastResponse = response;
+                    continue;
+                }
+                return response;
+            } catch (IOException e) {
+                node.failures.incrementAndGet();
+                eject(node, e.getClass().getSimpleName());
+                lastError = e;
+                log.warn("⚠️ ES 节点 {} 请求失败，切换节点: {}", node.baseUrl, e.toString());
+            } finally {
+                release(node);
+            }
+        }
+
+        if (lastResponse != null) return lastResponse;
+        throw lastError != null ? lastError : new IOException("无可用 ES 节点");
+    }
+
+    private String[] headersFor(String contentType) {
+        // 请求体为 SMILE 时 ES 默认以相同格式响应，统一要求 JSON 响应
+        return authHeader != null
+                ? new String[]{"Content-Type", contentType, "Accept", "application/json", "Authorization", authHeader}
+                : new String[]{"Content-Type", contentType, "Accept", "application/json"};
+    }
+
+    /**
+     * 选择在途请求最少的健康节点；所有候选节点都达到并发上限时等待
+     */
+    private Node acquire(Set<Node> exclude) throws InterruptedException {
+        synchronized (lock) {
+            while (true) {
+                Node best = pick(exclude, true);
+                if (best == null) {
+                    // 没有健康节点：健康状态可能已过时，仍然尝试未试过的节点
+                    best = pick(exclude, false);
+                }
+                if (best != null && best.inFlight.get() < maxInFlightPerNode) {
+                    best.inFlight.incrementAndGet();
+                    return best;
+                }
+                lock.wait(100);
+            }
+        }
+    }
+
+    private Node pick(Set<Node> exclude, boolean healthyOnly) {
+        Node best = null;
+        for (Node node : nodes) {
+            if (exclude.contains(node) || (healthyOnly && !node.healthy)) continue;
+            if (best == null || node.inFlight.get() < best.inFlight.get()) best = node;
+        }
+        return best;
+    }
+
+    private void release(Node node) {
+        synchronized (lock) {
+            node.inFlight.decrementAndGet();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * 节点状态 (供 WebConsole 展示)
+     */
+    public List<Map<String, Object>> getNodeStatus() {
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Node node : nodes) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("url", node.baseUrl);
+            m.put("healthy", node.healthy);
+            m.put("inFlight", node.inFlight.get());
+            m.put("requests", node.requests.get());
+            m.put("failures", node.failures.get());
+            m.put("lastError", node.lastError);
+            list.add(m);
+        }
+        return list;
+    }
+
+    public void stop() { this.running = false; }
+}
@@ -2,24 +2,27 @@ package com.lhcz.db2es.core;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.lhcz.db2es.config.AppConfig;
 import com.lhcz.db2es.model.SyncData;
+import com.lhcz.db2es.util.JsonUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URI;
-import java.net.http.HttpClient;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneId;
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -29,106 +32,241 @@ public class EsSink implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(EsSink.class);
     private static final ObjectMapper mapper = new ObjectMapper();
 
-    private final BlockingQueue<SyncData> queue;
+    private final BatchChannel channel;
     private final AppConfig.EsConfig esConfig;
     private final AppConfig.TaskConfig taskConfig;
-    private final HttpClient httpClient;
+    // 🟢 新增：写入目标 (同一任务可配置多个目标，各自独立的进度、死信与背压)
+    private final String sinkName;
+    private final String esIndex;
+    private final String esType;
+    // 🟢 新增：按文档日期解析索引名 (带缓存)
+    private final IndexRouter indexRouter;
+    private final EsNodePool nodePool;
     private volatile boolean running = true;
     private final CheckpointManager checkpointManager;
     private final DeadLetterQueueManager deadLetterQueueManager;
 
-    private static final DateTimeFormatter FMT_MONTH = DateTimeFormatter.ofPattern("yyyy_MM");
-    private static final DateTimeFormatter FMT_DAY = DateTimeFormatter.ofPattern("yyyy_MM_dd");
+    // SMILE bulk 请求中每个文档之后的流分隔符
+    private static final int SMILE_SEPARATOR = 0xFF;
 
     // 🟢 新增：统计指标 (用于 Web 监控)
     private final AtomicLong totalCreated = new AtomicLong(0);
     private final AtomicLong totalUpdated = new AtomicLong(0);
     private final AtomicLong totalFailed = new AtomicLong(0);
 
-    // 🟢 新增：当前统计日期，用于判断是否跨天
-    private String currentStatDate;
+    // 🟢 新增：变更检测 (跳过未变化文档 / 合并同批次重复 ID)，未启用时为 null
+    private final ContentHashStore hashStore;
+    private final AtomicLong totalSkipped = new AtomicLong(0);
+    private final AtomicLong totalCollapsed = new AtomicLong(0);
+
+    // 🟢 新增：吞吐指标 (累计值，由 MetricsSampler 计算速率)
+    private final AtomicLong docsIndexed = new AtomicLong(0);
+    private final AtomicLong bulkLatencyNanos = new AtomicLong(0);
+    private final AtomicLong bulkCount = new AtomicLong(0);
 
-    public EsSink(BlockingQueue<SyncData> queue, AppConfig.EsConfig esConfig, AppConfig.TaskConfig taskConfig, CheckpointManager cm, DeadLetterQueueManager dlq, HttpClient httpClient) {
-        this.queue = queue;
+    // 🟢 新增：当前统计日期，用于判断是否跨天
+    private volatile String currentStatDate;
+    private int currentStatDay;
+    // 🟢 新增：统计有变化，等待 StatsPersister 定时保存
+    private final AtomicBoolean statsDirty = new AtomicBoolean(false);
+
+    // 🟢 新增：缓存的当天 (epoch day) 及下一天开始的时刻，跨天前不再计算日期
+    private int cachedDay;
+    private long nextDayMillis;
+
+    // 🟢 新增：单次 flush 中 HTTP 请求之外的耗时 (组装 bulk、解析响应、保存进度等)
+    private final AtomicLong flushOverheadNanos = new AtomicLong(0);
+    private final AtomicLong flushCount = new AtomicLong(0);
+    private long flushExcludedNanos;
+
+    // 🟢 新增：bulk 请求使用 SMILE 二进制格式
+    private final boolean smile;
+
+    // 🟢 新增：只追加写入 (create 动作)，可选由 ES 生成 _id / 写入数据流
+    private final boolean appendOnly;
+    private final boolean autoId;
+    private final boolean dataStream;
+    // JSON bulk 的 action 行片段 (按配置省略 _type / _id)，组装时依次追加 前缀、索引、类型片段、_id 片段、_id、后缀
+    private final String actionPrefix;
+    private final String actionType;
+    private final String actionIdPrefix;
+    private static final String ACTION_SUFFIX = "\"}}\n";
+    // JSON bulk 缓冲区 (仅 Sink 线程使用，超过上限后不再复用)
+    private static final int MAX_RETAINED_BULK_CHARS = 4 * 1024 * 1024;
+    private StringBuilder bulkBuffer = new StringBuilder(8192);
+    private final AtomicLong totalConflicts = new AtomicLong(0);
+
+    public EsSink(BatchChannel channel, AppConfig.EsConfig esConfig, AppConfig.TaskConfig taskConfig,
+                  AppConfig.TargetConfig target, CheckpointManager cm, DeadLetterQueueManager dlq, EsNodePool nodePool) {
+        this.channel = channel;
         this.esConfig = esConfig;
         this.taskConfig = taskConfig;
+        // 进度/统计键：默认目标沿用表名 (兼容已有进度)，命名目标为 表名@目标名
+        this.sinkName = target.name() == null ? taskConfig.tableName() : taskConfig.tableName() + "@" + target.name();
+        this.esIndex = target.esIndex();
+        this.indexRouter = new IndexRouter(target.esIndex());
+        this.esType = (target.esType() != null && !target.esType().isBlank()) ? target.esType() : "_doc";
         this.checkpointManager = cm;
         this.deadLetterQueueManager = dlq;
-        this.httpClient = httpClient;
+        this.nodePool = nodePool;
+        this.smile = "smile".equalsIgnoreCase(esConfig.format());
+
+        AppConfig.AppendOnlyConfig ao = target.appendOnly() != null ? target.appendOnly() : taskConfig.appendOnly();
+        this.appendOnly = ao != null && Boolean.TRUE.equals(ao.enabled());
+        this.autoId = appendOnly && Boolean.TRUE.equals(ao.autoId());
+        this.dataStream = appendOnly && Boolean.TRUE.equals(ao.dataStream());
+        this.actionPrefix = "{\"" + (appendOnly ? "create" : "index") + "\":{\"_index\":\"";
+        this.actionType = dataStream ? "" : "\",\"_type\":\"" + esType;
+        this.actionIdPrefix = autoId ? "" : "\",\"_id\":\"";
 
         // 🟢 初始化：加载当日统计数据 (实现重启不丢失)
-        CheckpointManager.DailyStats stats = checkpointManager.getDailyStats(taskConfig.tableName());
+        CheckpointManager.DailyStats stats = checkpointManager.getDailyStats(sinkName);
         this.totalCreated.set(stats.created());
         this.totalUpdated.set(stats.updated());
         this.totalFailed.set(stats.failed());
         this.currentStatDate = stats.date();
+        this.currentStatDay = (int) LocalDate.parse(stats.date()).toEpochDay();
+
+        AppConfig.ChangeDetectionConfig cd = taskConfig.changeDetection();
+        if (cd != null && target.name() != null && cd.persistFile() != null && !cd.persistFile().isBlank()) {
+            // 每个目标写入进度不同，指纹库需分开保存
+            cd = new AppConfig.ChangeDetectionConfig(cd.enabled(), cd.maxEntries(),
+                    cd.persistFile() + "." + target.name(), cd.persistIntervalMs());
+        }
+        this.hashStore = (cd != null && Boolean.TRUE.equals(cd.enabled()))
+                ? new ContentHashStore(sinkName, cd) : null;
     }
 
     // 🟢 新增：Getter 方法供 WebConsole 使用
     public long getTotalCreated() { return totalCreated.get(); }
     public long getTotalUpdated() { return totalUpdated.get(); }
     public long getTotalFailed() { return totalFailed.get(); }
+    public long getTotalSkipped() { return totalSkipped.get(); }
+    public long getTotalCollapsed() { return totalCollapsed.get(); }
     public AppConfig.TaskConfig getTaskConfig() { return taskConfig; }
+    public String getName() { return sinkName; }
+    public String getEsIndex() { return esIndex; }
+    public String getEsType() { return esType; }
+    public long getTotalConflicts() { return totalConflicts.get(); }
+    public boolean isAutoId() { return autoId; }
+    public boolean isDataStream() { return dataStream; }
+    public IndexRouter getIndexRouter() { return indexRouter; }
+    public EsNodePool getNodePool() { return nodePool; }
+    public AppConfig.EsConfig getEsConfig() { return esConfig; }
+    public int getQueueSize() { return channel.size(); }
+    public long getDocsIndexed() { return docsIndexed.get(); }
+    public long getBulkLatencyNanos() { return bulkLatencyNanos.get(); }
+    public long getBulkCount() { return bulkCount.get(); }
+    public long getQueueBytes() { return channel.getBytes(); }
+    public long getFlushOverheadNanos() { return flushOverheadNanos.get(); }
+    public long getFlushCount() { return flushCount.get(); }
 
     @Override
     public void run() {
         List<SyncData> buffer = new ArrayList<>(esConfig.batchSize());
+        long bufferBytes = 0;
         long lastFlushTime = System.currentTimeMillis();
 
         try {
             while (running) {
-                SyncData data = queue.poll(100, TimeUnit.MILLISECONDS);
-                if (data != null) buffer.add(data);
+                // 🟢 一次调用批量取出，最多补齐到 batchSize
+                int from = buffer.size();
+                // 缓冲为空时最多等待一个 flushIntervalMs，否则等到按时间写入的时刻 (有数据放入时立即唤醒)
+                long waitMs = buffer.isEmpty() ? esConfig.flushIntervalMs()
+                        : Math.max(1, lastFlushTime + esConfig.flushIntervalMs() - System.currentTimeMillis());
+                int n = channel.drainTo(buffer, esConfig.batchSize() - from, waitMs, TimeUnit.MILLISECONDS);
+                for (int i = from; i < from + n; i++) {
+                    bufferBytes += buffer.get(i).estimatedBytes();
+                }
 
-                boolean sizeTrigger = buffer.size() >= esConfig.batchSize();
+                // 缓冲字节达到通道上限一半时也触发写入，避免大行时生产者因字节预算长时间阻塞
+                boolean sizeTrigger = buffer.size() >= esConfig.batchSize() || bufferBytes >= channel.getMaxBytes() / 2;
                 boolean timeTrigger = !buffer.isEmpty() && (System.currentTimeMillis() - lastFlushTime > esConfig.flushIntervalMs());
 
                 if (sizeTrigger || timeTrigger) {
                     flush(buffer);
                     buffer.clear();
+                    channel.release(bufferBytes);
+                    bufferBytes = 0;
                     lastFlushTime = System.currentTimeMillis();
                 }
             }
+            // 正常停止：写完缓冲区中剩余的数据
+            flush(buffer);
+            channel.release(bufferBytes);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+        } finally {
+            if (hashStore != null) hashStore.persist();
+            // 退出前保存最后的统计
+            persistStats();
         }
     }
 
-    private String resolveIndexName(String template) {
-        if (template == null || !template.contains("#(")) return template;
-        LocalDate now = LocalDate.now();
-        String result = template.replace("#(dtmon)", now.format(FMT_MONTH));
-        result = result.replace("#(dtday)", now.format(FMT_DAY));
-        return result;
+    /**
+     * 当天 (epoch day)，只在跨过缓存的零点后重新计算
+     */
+    private int today() {
+        long now = System.currentTimeMillis();
+        if (now >= nextDayMillis) {
+            LocalDate date = LocalDate.now();
+            cachedDay = (int) date.toEpochDay();
+            nextDayMillis = date.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+        return cachedDay;
     }
 
     // 🟢 新增：检查日期变更并重置统计
-    private void checkDateAndReset() {
-        String today = LocalDate.now().toString();
-        if (!today.equals(currentStatDate)) {
+    private void checkDateAndReset(int today) {
+        if (today != currentStatDay) {
             totalCreated.set(0);
             totalUpdated.set(0);
             totalFailed.set(0);
-            currentStatDate = today;
+            currentStatDay = today;
+            currentStatDate = LocalDate.ofEpochDay(today).toString();
+            statsDirty.set(true);
         }
     }
 
-    // 🟢 新增：保存统计数据到磁盘
-    private void saveStats() {
-        checkpointManager.saveDailyStats(taskConfig.tableName(),
-                new CheckpointManager.DailyStats(totalCreated.get(), totalUpdated.get(), totalFailed.get(), currentStatDate));
+    /**
+     * 按间隔持久化内容指纹库 (由 StatsPersister 后台线程调用，不占用 Sink 线程)
+     */
+    public void persistHashesIfDue() {
+        if (hashStore != null) hashStore.persistIfDue();
+    }
+
+    /**
+     * 保存统计数据 (由 StatsPersister 定时调用，Sink 退出时再调用一次)，没有变化时不写入
+     */
+    public void persistStats() {
+        if (!statsDirty.getAndSet(false)) return;
+        // 先读日期：与跨天重置并发时最多保存一份旧日期的统计 (重启加载时会被忽略)，下次保存即修正
+        String date = currentStatDate;
+        checkpointManager.saveDailyStats(sinkName,
+                new CheckpointManager.DailyStats(totalCreated.get(), totalUpdated.get(), totalFailed.get(), date));
     }
 
     private void flush(List<SyncData> batch) {
         if (batch.isEmpty()) return;
+        long start = System.nanoTime();
+        flushExcludedNanos = 0;
+        try {
+            doFlush(batch);
+        } finally {
+            flushOverheadNanos.addAndGet(System.nanoTime() - start - flushExcludedNanos);
+            flushCount.incrementAndGet();
+        }
+    }
 
+    private void doFlush(List<SyncData> batch) {
         // 1. 检查日期是否变更 (跨天重置)
-        checkDateAndReset();
+        int today = today();
+        checkDateAndReset(today);
 
-        String realIndex = resolveIndexName(taskConfig.esIndex());
-        String realType = (taskConfig.esType() != null && !taskConfig.esType().isBlank()) ? taskConfig.esType() : "_doc";
+        // 🟢 每条文档按自身日期路由，没有日期的文档写入当天的索引
+        String realIndex = indexRouter.indexFor(today);
+        String realType = esType;
 
-        StringBuilder bulkBody = new StringBuilder();
         // 检查本批次是否包含正常数据 (用于决定是否更新 Checkpoint)
         SyncData lastNormalData = null;
 
@@ -137,10 +275,6 @@ public class EsSink implements Runnable {
         int repairCount = 0;
 
         for (SyncData item : batch) {
-            bulkBody.append(String.format("{\"index\":{\"_index\":\"%s\",\"_type\":\"%s\",\"_id\":\"%s\"}}\n",
-                    realIndex, realType, item.esIdVal()));
-            bulkBody.append(item.jsonBody()).append("\n");
-
             if (!item.isRepair()) {
                 lastNormalData = item;
             } else {
@@ -152,44 +286,104 @@ public class EsSink implements Runnable {
             }
         }
 
-        // 构建 Auth
-        String authHeader = null;
-        if (esConfig.user() != null && !esConfig.user().isBlank()) {
-            String auth = esConfig.user() + ":" + esConfig.password();
-            String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
-            authHeader = "Basic " + encodedAuth;
+        // 🟢 新增：变更检测，只发送内容有变化的文档 (进度仍按整批推进)
+        List<SyncData> toSend = batch;
+        long[] contentHashes = null;
+        if (hashStore != null) {
+            // 同批次相同 _id 只保留最后一个版本
+            Map<String, SyncData> latest = new LinkedHashMap<>(batch.size() * 2);
+            for (SyncData item : batch) latest.put(item.esIdVal(), item);
+            int collapsed = batch.size() - latest.size();
+
+            toSend = new ArrayList<>(latest.size());
+            contentHashes = new long[latest.size()];
+            for (SyncData item : latest.values()) {
+                long h = item.smileBody() != null
+                        ? ContentHashStore.hash(item.smileBody()) : ContentHashStore.hash(item.jsonBody());
+                if (!hashStore.isUnchanged(item.esIdVal(), h)) {
+                    contentHashes[toSend.size()] = h;
+                    toSend.add(item);
+                }
+            }
+            int skipped = latest.size() - toSend.size();
+            totalCollapsed.addAndGet(collapsed);
+            totalSkipped.addAndGet(skipped);
+
+            if (toSend.isEmpty()) {
+                log.info("⏭️ [{}] 本批次 {} 条数据内容均未变化，跳过写入 (合并重复 {} 条)",
+                        sinkName, batch.size(), collapsed);
+                commitProgress(lastNormalData, maxRepairId);
+                return;
+            }
         }
 
+        String contentType = smile ? "application/smile" : "application/json";
+        byte[] payload;
+        try {
+            payload = smile ? buildSmileBulk(toSend, today, realType) : buildJsonBulk(toSend, today);
+        } catch (Exception e) {
+            log.error("❌ [{}] 构造 bulk 请求失败! 转存补录队列。原因: {}", sinkName, e.toString());
+            deadLetterQueueManager.save(sinkName, batch, "Encode_" + e.getClass().getSimpleName());
+            totalFailed.addAndGet(batch.size());
+            statsDirty.set(true);
+            return;
+        }
         int retries = 0;
         String lastErrorReason = "";
 
         while (retries < 3) {
             try {
-                HttpRequest.Builder reqBuilder = HttpRequest.newBuilder()
-                        .uri(URI.create(esConfig.url() + "/_bulk"))
-                        .header("Content-Type", "application/json");
-
-                if (authHeader != null) reqBuilder.header("Authorization", authHeader);
-
-                HttpRequest request = reqBuilder.POST(HttpRequest.BodyPublishers.ofString(bulkBody.toString())).build();
-                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                // 🟢 由节点池选择节点 (单节点故障会先切换其他节点，不计入重试次数)
+                long sendStart = System.nanoTime();
+                HttpResponse<String> response = nodePool.post("/_bulk", contentType,
+                        HttpRequest.BodyPublishers.ofByteArray(payload));
+                long sendNanos = System.nanoTime() - sendStart;
+                bulkLatencyNanos.addAndGet(sendNanos);
+                flushExcludedNanos += sendNanos;
+                bulkCount.incrementAndGet();
 
                 if (response.statusCode() == 200) {
                     String body = response.body();
                     // 逻辑错误检查
-                    if (body.contains("\"errors\":true")) {
+                    boolean[] rejectedMask = null;
+                    int rejectedCount = 0;
+                    if (appendOnly && body.contains("\"errors\":true")) {
+                        // 🟢 只追加写入：逐项判断，_id 已存在 (409) 视为成功，只有真正失败的文档进入死信队列
+                        rejectedMask = rejectedItems(body, toSend.size());
+                        List<SyncData> rejected = new ArrayList<>();
+                        for (int i = 0; i < toSend.size(); i++) {
+                            if (rejectedMask[i]) rejected.add(toSend.get(i));
+                        }
+                        rejectedCount = rejected.size();
+                        if (rejectedCount == toSend.size()) {
+                            String logicError = parsePartialError(body);
+                            log.error("❌ [{}] 写入拒绝 (逻辑错误)! 原因: {}", sinkName, logicError);
+                            deadLetterQueueManager.save(sinkName, batch, "Logic_" + logicError);
+                            totalFailed.addAndGet(batch.size());
+                            statsDirty.set(true);
+                            return;
+                        }
+                        if (!rejected.isEmpty()) {
+                            String logicError = parsePartialError(body);
+                            log.error("❌ [{}] {} 条文档写入拒绝 (逻辑错误)，转存补录队列! 原因: {}",
+                                    sinkName, rejected.size(), logicError);
+                            deadLetterQueueManager.save(sinkName, rejected, "Logic_" + logicError);
+                            totalFailed.addAndGet(rejected.size());
+                        }
+                    } else if (body.contains("\"errors\":true")) {
                         String logicError = parsePartialError(body);
-                        log.error("❌ [{}] 写入拒绝 (逻辑错误)! 原因: {}", taskConfig.tableName(), logicError);
+                        log.error("❌ [{}] 写入拒绝 (逻辑错误)! 原因: {}", sinkName, logicError);
                         // 逻辑错误重试无效，直接存入死信队列
-                        deadLetterQueueManager.save(taskConfig.tableName(), batch, "Logic_" + logicError);
+                        deadLetterQueueManager.save(sinkName, batch, "Logic_" + logicError);
                         totalFailed.addAndGet(batch.size()); // 统计失败
-                        saveStats(); // 保存统计
+                        statsDirty.set(true);
                         return; // 本批次结束，不抛异常，避免阻塞流水线
                     }
 
                     // 🟢 新增：解析响应统计 Create/Update 数量
                     int created = 0;
                     int updated = 0;
+                    int conflicts = 0;
                     try {
                         JsonNode root = mapper.readTree(body);
                         JsonNode items = root.path("items");
@@ -204,6 +398,8 @@ public class EsSink implements Runnable {
                                         created++;
                                     } else if ("updated".equals(resultStatus)) {
                                         updated++;
+                                    } else if (resultNode.path("status").asInt() == 409) {
+                                        conflicts++;
                                     }
                                 }
                             }
@@ -215,7 +411,8 @@ public class EsSink implements Runnable {
                     // 🟢 更新全局统计
                     totalCreated.addAndGet(created);
                     totalUpdated.addAndGet(updated);
-                    saveStats(); // 保存统计
+                    totalConflicts.addAndGet(conflicts);
+                    statsDirty.set(true); // 由 StatsPersister 定时保存
 
                     // 🟢 修改：根据数据类型输出不同日志并控制 Checkpoint
                     if (repairCount == batch.size()) {
@@ -224,23 +421,22 @@ public class EsSink implements Runnable {
                                 repairCount, created, updated);
                     } else {
                         // 包含正常数据
-                        log.info("✅ 成功写入 [{}] -> ES [{}] ({} 条, 含 {} 条修复) [Create:{}, Update:{}]",
-                                taskConfig.tableName(), realIndex, batch.size(), repairCount, created, updated);
+                        log.info("✅ 成功写入 [{}] -> ES [{}] ({} 条, 含 {} 条修复, 跳过 {} 条) [Create:{}, Update:{}{}]",
+                                sinkName, realIndex, batch.size(), repairCount,
+                                batch.size() - toSend.size(), created, updated,
+                                conflicts > 0 ? ", 已存在:" + conflicts : "");
                     }
 
-                    // 🟢 关键：只有存在正常增量数据时，才更新 Checkpoint
-                    // 防止回溯的历史旧 ID 覆盖了当前的最新进度
-                    if (lastNormalData != null) {
-                        long lastIdCursor = lastNormalData.idCursorVal();
-                        String lastTimestampCursor = lastNormalData.timestampCursorVal();
-                        checkpointManager.save(taskConfig.tableName(), new CheckpointManager.Checkpoint(lastIdCursor, lastTimestampCursor));
+                    // 🟢 记录已写入文档的内容指纹
+                    if (hashStore != null) {
+                        for (int i = 0; i < toSend.size(); i++) {
+                            if (rejectedMask != null && rejectedMask[i]) continue;
+                            hashStore.record(toSend.get(i).esIdVal(), contentHashes[i]);
+                        }
                     }
 
-                    // 🟢 2. 处理回溯修复进度
-                    // 如果本批次包含修复数据，将其中最大的ID保存到 checkpoint 文件
-                    if (maxRepairId > 0) {
-                        checkpointManager.saveRewind(taskConfig.tableName(), maxRepairId);
-                    }
+                    docsIndexed.addAndGet(toSend.size() - rejectedCount);
+                    commitProgress(lastNormalData, maxRepairId);
 
                     return;
                 } else {
@@ -249,17 +445,89 @@ public class EsSink implements Runnable {
                 }
             } catch (Exception e) {
                 lastErrorReason = "Exception_" + e.getClass().getSimpleName();
-                log.warn("⚠️ [{}] 写入异常，正在重试 {}/3 ... Error: {}", taskConfig.tableName(), retries + 1, e.toString());
+                log.warn("⚠️ [{}] 写入异常，正在重试 {}/3 ... Error: {}", sinkName, retries + 1, e.toString());
             }
 
             retries++;
+            long backoffStart = System.nanoTime();
             try { Thread.sleep(1000L * retries); } catch (InterruptedException ignored) {}
+            flushExcludedNanos += System.nanoTime() - backoffStart;
         }
 
-        log.error("❌ [{}] 重试耗尽，写入失败! 转存补录队列。原因: {}", taskConfig.tableName(), lastErrorReason);
-        deadLetterQueueManager.save(taskConfig.tableName(), batch, lastErrorReason);
+        log.error("❌ [{}] 重试耗尽，写入失败! 转存补录队列。原因: {}", sinkName, lastErrorReason);
+        deadLetterQueueManager.save(sinkName, batch, lastErrorReason);
         totalFailed.addAndGet(batch.size()); // 统计失败
-        saveStats(); // 保存统计
+        statsDirty.set(true);
+    }
+
+    private byte[] buildJsonBulk(List<SyncData> items, int today) {
+        if (bulkBuffer.capacity() > MAX_RETAINED_BULK_CHARS) bulkBuffer = new StringBuilder(8192);
+        StringBuilder bulkBody = bulkBuffer;
+        bulkBody.setLength(0);
+        for (SyncData item : items) {
+            bulkBody.append(actionPrefix).append(indexRouter.indexFor(item, today)).append(actionType);
+            if (!autoId) bulkBody.append(actionIdPrefix).append(item.esIdVal());
+            bulkBody.append(ACTION_SUFFIX);
+            String json = item.jsonBody() != null ? item.jsonBody() : JsonUtil.smileToJson(item.smileBody());
+            bulkBody.append(json).append('\n');
+        }
+        return bulkBody.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * SMILE 格式的 bulk 请求：action 与文档各自是一个独立的 SMILE 文档，以 0xFF 分隔
+     */
+    private byte[] buildSmileBulk(List<SyncData> items, int today, String type) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(items.size() * 256);
+        ObjectNode action = mapper.createObjectNode();
+        ObjectNode meta = action.putObject(appendOnly ? "create" : "index");
+        if (!dataStream) meta.put("_type", type);
+        for (SyncData item : items) {
+            meta.put("_index", indexRouter.indexFor(item, today));
+            if (!autoId) meta.put("_id", item.esIdVal());
+            JsonUtil.smileMapper().writeValue(out, action); // 直接写入请求缓冲区，不产生中间数组
+            out.write(SMILE_SEPARATOR);
+            out.write(item.smileBody() != null ? item.smileBody() : JsonUtil.jsonToSmile(item.jsonBody()));
+            out.write(SMILE_SEPARATOR);
+        }
+        return out.toByteArray();
+    }
+
+    private void commitProgress(SyncData lastNormalData, long maxRepairId) {
+        // 🟢 关键：只有存在正常增量数据时，才更新 Checkpoint
+        // 防止回溯的历史旧 ID 覆盖了当前的最新进度
+        if (lastNormalData != null) {
+            long lastIdCursor = lastNormalData.idCursorVal();
+            String lastTimestampCursor = lastNormalData.timestampCursorVal();
+            checkpointManager.save(sinkName, new CheckpointManager.Checkpoint(lastIdCursor, lastTimestampCursor));
+        }
+
+        // 🟢 2. 处理回溯修复进度
+        // 如果本批次包含修复数据，将其中最大的ID保存到 checkpoint 文件
+        if (maxRepairId > 0) {
+            checkpointManager.saveRewind(sinkName, maxRepairId);
+        }
+    }
+
+    /**
+     * 只追加写入时找出被拒绝的文档 (响应项与请求按顺序一一对应)
+     * 提供了 _id 时 409 (文档已存在) 说明之前已写入成功，视为幂等成功
+     */
+    private boolean[] rejectedItems(String responseBody, int sent) {
+        boolean[] rejected = new boolean[sent];
+        try {
+            JsonNode items = mapper.readTree(responseBody).path("items");
+            for (int i = 0; i < items.size() && i < sent; i++) {
+                JsonNode result = items.get(i).elements().hasNext() ? items.get(i).elements().next() : items.get(i);
+                if (!result.has("error")) continue;
+                if (!autoId && result.path("status").asInt() == 409) continue;
+                rejected[i] = true;
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ 解析 ES 响应失败，整批视为失败: {}", e.getMessage());
+            Arrays.fill(rejected, true);
+        }
+        return rejected;
     }
 
     private String parsePartialError(String responseBody) {
@@ -269,7 +537,11 @@ public class EsSink implements Runnable {
                 JsonNode items = root.path("items");
                 if (items.isArray() && items.size() > 0) {
                     for (JsonNode item : items) {
-                        JsonNode indexObj = item.path("index");
+                        // 响应项的键与动作一致 (index/create)
+                        JsonNode indexObj = item.elements().hasNext() ? item.elements().next() : item;
+                        if (indexObj.has("error") && (appendOnly && !autoId) && indexObj.path("status").asInt() == 409) {
+                            continue; // 已存在，不是错误
+                        }
                         if (indexObj.has("error")) {
                             return indexObj.path("error").path("reason").asText();
                         }
@@ -280,5 +552,8 @@ public class EsSink implements Runnable {
         return "Unknown_Error";
     }
 
-    public void stop() { this.running = false; }
+    public void stop() {
+        this.running = false;
+        channel.wakeConsumer(); // 空闲等待中的 Sink 立即退出
+    }
 }
@@ -0,0 +1,75 @@
+package com.lhcz.db2es.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按日期索引的提前创建
+ * 定期为每个写入目标创建当前及下一周期 (天/月) 的索引，跨天/跨月后的第一次写入不再承担建索引和生成 Mapping 的耗时。
+ * 索引以空请求体创建，settings/mappings 由 ES 中匹配的索引模板提供。
+ */
+public class IndexPreCreator implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(IndexPreCreator.class);
+    private static final long CHECK_INTERVAL_MS = 10 * 60_000L;
+
+    private final List<EsSink> sinks;
+    // 已确认存在的索引 (节点池 + 索引名)，避免重复请求
+    private final Set<String> created = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+
+    public IndexPreCreator(List<EsSink> sinks) {
+        this.sinks = sinks;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            LocalDate today = LocalDate.now();
+            for (EsSink sink : sinks) {
+                if (Boolean.FALSE.equals(sink.getEsConfig().precreateIndices())) continue;
+                // 数据流在第一次 create 时由匹配的索引模板自动创建，不能用 PUT 建成普通索引
+                if (sink.isDataStream()) continue;
+                for (String index : sink.getIndexRouter().upcoming(today)) {
+                    String key = System.identityHashCode(sink.getNodePool()) + "/" + index;
+                    if (created.contains(key)) continue;
+                    if (create(sink.getNodePool(), index)) created.add(key);
+                }
+            }
+            try {
+                Thread.sleep(CHECK_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private boolean create(EsNodePool nodePool, String index) {
+        try {
+            HttpResponse<String> resp = nodePool.send("PUT", "/" + index, "application/json",
+                    HttpRequest.BodyPublishers.ofString("{}"));
+            if (resp.statusCode() == 200) {
+                log.info("🗂️ 已提前创建索引: {}", index);
+                return true;
+            }
+            if (resp.body() != null && resp.body().contains("resource_already_exists_exception")) {
+                return true;
+            }
+            log.warn("⚠️ 提前创建索引 [{}] 失败: HTTP_{} {}", index, resp.statusCode(), resp.body());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("⚠️ 提前创建索引 [{}] 失败: {}", index, e.toString());
+        }
+        return false;
+    }
+
+    public void stop() { this.running = false; }
+}
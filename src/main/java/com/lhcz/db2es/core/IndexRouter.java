@@ -0,0 +1,70 @@
+package com.lhcz.db2es.core;
+
+import com.lhcz.db2es.model.SyncData;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 索引名解析 (按日期路由)
+ * 索引模板中的 #(dtmon) / #(dtday) 按文档自身的日期 (SyncData.routeDay) 展开，没有日期时使用写入当天。
+ * 解析结果按天缓存，写入时不再对每条文档做日期格式化。
+ */
+public class IndexRouter {
+    private static final DateTimeFormatter FMT_MONTH = DateTimeFormatter.ofPattern("yyyy_MM");
+    private static final DateTimeFormatter FMT_DAY = DateTimeFormatter.ofPattern("yyyy_MM_dd");
+    private static final int MAX_CACHED_DAYS = 4096;
+
+    private final String template;
+    private final boolean dated;
+    private final boolean daily;
+    // epoch day -> 索引名 (仅 EsSink 线程访问)
+    private final Map<Integer, String> cache = new HashMap<>();
+
+    public IndexRouter(String template) {
+        this.template = template;
+        this.dated = template != null && template.contains("#(");
+        this.daily = dated && template.contains("#(dtday)");
+    }
+
+    public boolean isDated() { return dated; }
+
+    /**
+     * @param today 写入当天 (epoch day)，文档没有路由日期时使用
+     */
+    public String indexFor(SyncData item, int today) {
+        if (!dated) return template;
+        return indexFor(item.routeDay() != SyncData.NO_ROUTE_DAY ? item.routeDay() : today);
+    }
+
+    public String indexFor(int epochDay) {
+        if (!dated) return template;
+        String name = cache.get(epochDay);
+        if (name == null) {
+            if (cache.size() >= MAX_CACHED_DAYS) cache.clear(); // 大量历史数据回补时防止无限增长
+            name = resolve(LocalDate.ofEpochDay(epochDay));
+            cache.put(epochDay, name);
+        }
+        return name;
+    }
+
+    /**
+     * 当前及下一个周期 (天/月) 的索引名，供提前创建索引使用
+     * 不访问缓存，可在其他线程调用
+     */
+    public Set<String> upcoming(LocalDate today) {
+        Set<String> names = new LinkedHashSet<>();
+        if (!dated) return names;
+        names.add(resolve(today));
+        names.add(resolve(daily ? today.plusDays(1) : today.plusMonths(1).withDayOfMonth(1)));
+        return names;
+    }
+
+    private String resolve(LocalDate day) {
+        return template.replace("#(dtmon)", day.format(FMT_MONTH)).replace("#(dtday)", day.format(FMT_DAY));
+    }
+}
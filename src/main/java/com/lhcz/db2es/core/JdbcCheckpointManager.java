@@ -0,0 +1,135 @@
+package com.lhcz.db2es.core;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于数据库的进度管理器 (多实例部署)
+ * 进度保存在租约表的 state 列中 (JSON)，所有实例共享；
+ * 写入时校验租约持有者，租约已被其他实例接管时丢弃本次写入，防止旧实例回退进度。
+ * Sink 保存进度只更新内存并标记任务，由 LeaseCoordinator 在每次心跳以及停止任务后调用 flush 合并写入，
+ * 每个任务每个心跳最多一次 UPDATE；进程异常退出时最多丢失一个心跳间隔的进度 (重启后重复写入，按 _id 幂等)。
+ */
+public class JdbcCheckpointManager extends CheckpointManager {
+    private static final Logger log = LoggerFactory.getLogger(JdbcCheckpointManager.class);
+    private static final TypeReference<LinkedHashMap<String, String>> STATE_TYPE = new TypeReference<>() {};
+
+    private final DataSource ds;
+    private final String leaseTable;
+    private final String owner;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // 已加载的任务进度 (任务名 -> 进度项，按进度项 Map 自身加锁)
+    private final Map<String, Map<String, String>> states = new ConcurrentHashMap<>();
+    // 有未写入数据库的进度的任务
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+
+    public JdbcCheckpointManager(DataSource ds, String leaseTable, String owner) {
+        super(false);
+        this.ds = ds;
+        this.leaseTable = leaseTable;
+        this.owner = owner;
+    }
+
+    /**
+     * 租约易主后丢弃本地缓存 (包括未写入的进度)，下次读取时从数据库重新加载
+     */
+    public void invalidate(String task) {
+        dirty.remove(task);
+        states.remove(task);
+    }
+
+    @Override
+    protected String getProperty(String task, String key) {
+        Map<String, String> state = state(leaseName(task));
+        synchronized (state) {
+            return state.get(key);
+        }
+    }
+
+    @Override
+    protected void setProperties(String name, Map<String, String> values) {
+        // 多目标任务的进度 (表名@目标名) 与任务保存在同一租约行中
+        String task = leaseName(name);
+        Map<String, String> state = state(task);
+        synchronized (state) {
+            state.putAll(values);
+        }
+        dirty.add(task);
+    }
+
+    /**
+     * 将任务未写入的进度写入租约表 (由心跳与停止任务后调用)
+     * 同一任务的写入串行执行，保证较新的进度不会被较旧的覆盖
+     */
+    public synchronized void flush(String task) {
+        if (!dirty.remove(task)) return;
+        Map<String, String> state = states.get(task);
+        if (state == null) return;
+
+        String json;
+        try {
+            synchronized (state) {
+                json = mapper.writeValueAsString(state);
+            }
+        } catch (Exception e) {
+            log.error("序列化进度失败! 任务: {}", task, e);
+            return;
+        }
+
+        String sql = "UPDATE " + leaseTable + " SET state = ? WHERE task_name = ? AND owner = ?";
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, json);
+            ps.setString(2, task);
+            ps.setString(3, owner);
+            if (ps.executeUpdate() == 0) {
+                log.warn("⚠️ 任务 [{}] 租约已不属于本实例 [{}]，忽略进度写入: {}", task, owner, json);
+                states.remove(task);
+            }
+        } catch (Exception e) {
+            // 下次心跳重试
+            dirty.add(task);
+            log.error("保存进度失败! 任务: {}", task, e);
+        }
+    }
+
+    private static String leaseName(String name) {
+        int at = name.indexOf('@');
+        return at < 0 ? name : name.substring(0, at);
+    }
+
+    private Map<String, String> state(String task) {
+        // 读取失败时抛出异常且不缓存，避免用空进度覆盖数据库中的真实进度
+        return states.computeIfAbsent(task, this::load);
+    }
+
+    private Map<String, String> load(String task) {
+        Map<String, String> state = new LinkedHashMap<>();
+        String sql = "SELECT state FROM " + leaseTable + " WHERE task_name = ?";
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, task);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next() && rs.getString(1) != null) {
+                    state = mapper.readValue(rs.getString(1), STATE_TYPE);
+                }
+            }
+            log.info("已从租约表加载任务 [{}] 进度: {}", task, state);
+        } catch (Exception e) {
+            throw new IllegalStateException("读取任务 [" + task + "] 进度失败", e);
+        }
+        return state;
+    }
+}
@@ -1,5 +1,6 @@
 package com.lhcz.db2es.core;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.lhcz.db2es.config.AppConfig;
 import com.lhcz.db2es.model.SyncData;
 import com.lhcz.db2es.util.JsonUtil;
@@ -10,7 +11,13 @@ import org.slf4j.LoggerFactory;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.util.concurrent.BlockingQueue;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 数据库读取任务 (生产者)
@@ -22,7 +29,10 @@ public class JdbcSource implements Runnable {
 
     private final HikariDataSource ds;
     private final AppConfig.TaskConfig task;
-    private final BlockingQueue<SyncData> queue;
+    // 🟢 修改：支持多个输出 (一次读取分发给多个写入目标)
+    private final List<Output> outputs;
+    // 各输出已确认的主进度，不超过该值的增量数据不再发给对应输出
+    private final long[] resumeAfter;
     private volatile boolean running = true;
     private final CheckpointManager checkpointManager;
 
@@ -32,14 +42,63 @@ public class JdbcSource implements Runnable {
 
     // 🟢 新增：内存中的回溯游标
     private long rewindStartId;
+    // 🟢 新增：进行中的回溯校验终点 (分页执行，每轮主循环最多读取一页)，-1 表示没有进行中的回溯
+    private long rewindTargetId = -1;
+    private int rewindRows;
+    private long lastRewindTime;
+    // 最近一次 emitRows 放入的最后一行 ID
+    private long lastEmittedId;
     // 🟢 新增：当前主进度ID (用于监控)
     private volatile long currentId;
 
-    public JdbcSource(HikariDataSource ds, AppConfig.TaskConfig task, BlockingQueue<SyncData> queue, CheckpointManager cm) {
+    // 🟢 新增：累计读取行数 (用于吞吐监控)
+    private final AtomicLong rowsRead = new AtomicLong();
+
+    // 🟢 新增：维表关联 (未配置 lookups 时为 null)
+    private final LookupEnricher enricher;
+    private final String pkColName;
+    // 🟢 新增：自适应页大小与读取限流 (替代固定的 pageSize)
+    private final ReadController readController;
+    // 🟢 新增：是否使用 SMILE 二进制编码文档
+    private final boolean smile;
+    // 🟢 新增：窗口预聚合 (未配置 rollup 时为 null)
+    private final RollupStage rollup;
+    // 🟢 新增：大字段流式编码
+    private final RowEncoder rowEncoder;
+    // 🟢 新增：数据页采集 (未启用时为 null)，tracePage 收集当前页放入通道的数据
+    private final TraceRecorder recorder;
+    private final List<SyncData> tracePage = new ArrayList<>();
+
+    // 已读取、尚未放入通道的一行；encoded 为已编码的大字段行 (有维表关联时关联字段稍后追加)，其余情况为 null
+    private record PendingRow(long cursor, String esIdVal, ObjectNode doc, RowEncoder.Row encoded) {}
+
+    // 一页数据：先整页读完并关闭游标，再关联、放入通道；dbMs 为查询与 rs.next() 的数据库耗时 (不含编码与背压等待)
+    private record Page(List<PendingRow> rows, RowEncoder.Columns columns, long dbMs) {}
+
+    /**
+     * 一个写入目标的输出
+     * @param checkpointKey 该目标的进度键 (与 EsSink.getName() 一致)
+     * @param acceptsRepair 是否接收回溯修复数据 (由 ES 生成 _id 的目标重复写入会产生重复文档，不接收)
+     */
+    public record Output(String checkpointKey, BatchChannel channel, boolean acceptsRepair) {}
+
+    public JdbcSource(HikariDataSource ds, AppConfig.TaskConfig task, List<Output> outputs, CheckpointManager cm,
+                      ReadController readController, boolean smile, RollupStage rollup, TraceRecorder recorder) {
         this.ds = ds;
         this.task = task;
-        this.queue = queue;
+        this.outputs = outputs;
+        this.resumeAfter = new long[outputs.size()];
         this.checkpointManager = cm;
+        this.readController = readController;
+        this.smile = smile;
+        this.rollup = rollup;
+        this.rowEncoder = new RowEncoder(task, smile);
+        this.recorder = recorder;
+        this.enricher = (task.lookups() != null && !task.lookups().isEmpty())
+                ? new LookupEnricher(ds, task.lookups()) : null;
+        // 如果没配置 pkColumn，则默认使用 idColumn
+        this.pkColName = (task.pkColumn() != null && !task.pkColumn().isBlank())
+                ? task.pkColumn() : task.idColumn();
     }
 
     public AppConfig.TaskConfig getTaskConfig() {
@@ -50,16 +109,47 @@ public class JdbcSource implements Runnable {
         return currentId;
     }
 
+    public long getRowsRead() {
+        return rowsRead.get();
+    }
+
+    /**
+     * 各写入目标中最小的已确认进度 (ES 已写入成功并保存的 checkpoint)
+     * 通道中等待写入、正在重试的数据不计入
+     */
+    public long getCommittedId() {
+        long taskStartId = checkpointManager.getStartId(task.tableName(), task.startId());
+        long min = Long.MAX_VALUE;
+        for (Output output : outputs) {
+            min = Math.min(min, checkpointManager.getStartId(output.checkpointKey(), taskStartId));
+        }
+        return min == Long.MAX_VALUE ? taskStartId : min;
+    }
+
+    public ReadController getReadController() {
+        return readController;
+    }
+
     @Override
     public void run() {
         // 1. 获取起始进度 (优先读取断点文件，没有则使用配置的 startId)
-        this.currentId = checkpointManager.getStartId(task.tableName(), task.startId());
+        // 🟢 多目标时从各目标中最小的已确认进度开始读取，新增目标默认继承任务原有进度
+        long taskStartId = checkpointManager.getStartId(task.tableName(), task.startId());
+        long taskRewindId = checkpointManager.getRewindId(task.tableName(), Math.max(0, taskStartId - REWIND_OFFSET));
+        long minStart = Long.MAX_VALUE;
+        long minRewind = Long.MAX_VALUE;
+        for (int i = 0; i < outputs.size(); i++) {
+            String key = outputs.get(i).checkpointKey();
+            resumeAfter[i] = checkpointManager.getStartId(key, taskStartId);
+            minStart = Math.min(minStart, resumeAfter[i]);
+            minRewind = Math.min(minRewind, checkpointManager.getRewindId(key, taskRewindId));
+        }
+        this.currentId = minStart;
 
         // 🟢 初始化回溯游标：优先读文件，没有则默认从当前-10000开始
-        this.rewindStartId = checkpointManager.getRewindId(task.tableName(), Math.max(0, currentId - REWIND_OFFSET));
+        this.rewindStartId = minRewind;
 
-        int pageSize = 5000; // 每次查询条数，建议 2000-5000
-        long lastRewindTime = System.currentTimeMillis(); // 记录上次回溯时间
+        this.lastRewindTime = System.currentTimeMillis(); // 记录上次回溯时间
 
         log.info("任务 [{}] 启动，主进度ID: {}, 回溯进度ID: {}", task.tableName(), currentId, rewindStartId);
 
@@ -68,10 +158,11 @@ public class JdbcSource implements Runnable {
         while (running) {
             try {
                 // --- 🟢 新增逻辑：定期执行回溯校验 (解决并发写入丢数据问题) ---
-                if (System.currentTimeMillis() - lastRewindTime > REWIND_INTERVAL_MS) {
-                    performRewindCheck(currentId);
-                    lastRewindTime = System.currentTimeMillis();
+                // 回溯分页执行，每轮只读一页，且修复通道放不下时跳过，不阻塞主进度
+                if (rewindTargetId < 0 && System.currentTimeMillis() - lastRewindTime > REWIND_INTERVAL_MS) {
+                    startRewindCheck(currentId);
                 }
+                boolean rewound = rewindTargetId >= 0 && performRewindPage();
                 // -------------------------------------------------------
 
                 // 构造 SQL：必须按 idColumn 排序以保证不漏数据
@@ -80,50 +171,48 @@ public class JdbcSource implements Runnable {
                         task.columns(), task.tableName(), task.idColumn(), task.idColumn());
 
                 int fetchCount = 0;
+                int pageSize = readController.getPageLimit();
+                long connWaitMs;
+                Page page;
+                readController.beforeQuery();
+                int reserved = readController.reserveRows(pageSize, false);
                 long startTime = System.currentTimeMillis();
 
                 // 3. 获取连接与执行查询
                 // 使用 try-with-resources 自动关闭 Connection 和 PreparedStatement
-                try (Connection conn = ds.getConnection();
-                     PreparedStatement ps = conn.prepareStatement(sql)) {
-
-                    ps.setLong(1, currentId);
-                    ps.setInt(2, pageSize);
-
-                    // 调试时可开启：打印具体执行的 SQL
-                    String debugSql = sql.replaceFirst("\\?", String.valueOf(currentId))
-                            .replaceFirst("\\?", String.valueOf(pageSize));
-
-                    log.info("[SQL] {}", debugSql);
-
-
-                    try (ResultSet rs = ps.executeQuery()) {
-                        while (rs.next()) {
-                            // A. 获取分页游标值 (用于进度记录，必须是数字)
-                            String cursorVal = rs.getString(task.idColumn());
-
-                            // B. 获取业务去重主键 (用于 ES _id)
-                            // 如果没配置 pkColumn，则默认使用 idColumn
-                            String pkColName = (task.pkColumn() != null && !task.pkColumn().isBlank())
-                                    ? task.pkColumn() : task.idColumn();
-                            String esIdVal = rs.getString(pkColName);
-
-                            // C. 转换为 JSON
-                            String json = JsonUtil.resultSetToJson(rs);
-
-                            // D. 放入队列 (如果队列满，这里会阻塞等待 Sink 消费，实现背压)
-                            // 🟢 修改：构造 SyncData 时传入 isRepair=false
-                            queue.put(new SyncData(Long.parseLong(cursorVal), null, esIdVal, json, false));
-
-                            // 更新内存中的进度
-                            currentId = Long.parseLong(cursorVal);
-                            fetchCount++;
+                try (Connection conn = readController.tailDataSource(currentId).getConnection()) {
+                    connWaitMs = System.currentTimeMillis() - startTime;
+                    boolean autoCommit = beginCursorRead(conn);
+                    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                        ps.setFetchSize(readController.getFetchSize());
+                        ps.setLong(1, currentId);
+                        ps.setInt(2, pageSize);
+
+                        // 调试时可开启：打印具体执行的 SQL
+                        String debugSql = sql.replaceFirst("\\?", String.valueOf(currentId))
+                                .replaceFirst("\\?", String.valueOf(pageSize));
+
+                        log.info("[SQL] {}", debugSql);
+
+                        long queryStart = System.nanoTime();
+                        try (ResultSet rs = ps.executeQuery()) {
+                            page = readPage(rs, queryStart);
                         }
+                    } finally {
+                        endCursorRead(conn, autoCommit);
                     }
                 }
+                // 连接已归还，放入通道时的背压等待不会占用只读事务
+                long queryMs = page.dbMs();
+                fetchCount = emitPage(page, false);
+
+                if (recorder != null) recorder.offer(tracePage, startTime, queryMs, false);
+                readController.settleRows(reserved, fetchCount, pageSize, false);
+                readController.afterQuery(queryMs, connWaitMs, fetchCount, pageSize);
+                if (rollup != null) rollup.tick(System.currentTimeMillis());
 
                 // 4. 根据读取结果决定下一步
-                if (fetchCount == 0) {
+                if (fetchCount == 0 && !rewound) {
                     // 没有新数据，休眠 2 秒避免空转
                     Thread.sleep(2000);
                 } else {
@@ -153,59 +242,244 @@ public class JdbcSource implements Runnable {
             }
         }
 
+        if (recorder != null) recorder.close();
         log.info("👋 任务 [{}] 线程已结束", task.tableName());
     }
 
     /**
-     * 执行回溯校验：读取 [rewindStartId, currentId - 10000] 范围的数据
+     * 开始一轮回溯校验：目标范围 [rewindStartId, currentId - REWIND_OFFSET]
      */
-    private void performRewindCheck(long currentMaxId) {
-        // 设定回溯的目标终点：当前主进度 - 10000
+    private void startRewindCheck(long currentMaxId) {
+        // 设定回溯的目标终点：当前主进度 - REWIND_OFFSET
         long targetEndId = Math.max(0, currentMaxId - REWIND_OFFSET);
 
         // 如果回溯进度已经追上了目标，则无需执行
         if (rewindStartId >= targetEndId) {
+            lastRewindTime = System.currentTimeMillis();
             return;
         }
 
         log.info("🔄 [回溯校验] 表[{}] 范围 ({} - {}]", task.tableName(), rewindStartId, targetEndId);
+        this.rewindTargetId = targetEndId;
+        this.rewindRows = 0;
+    }
 
-        // 查询范围数据的 SQL (不需要排序，只要把数据捞出来即可)
-        String sql = String.format("SELECT %s FROM %s WHERE %s > ? AND %s <= ?",
-                task.columns(), task.tableName(), task.idColumn(), task.idColumn());
-
-        try (Connection conn = ds.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-
-            ps.setLong(1, rewindStartId);
-            ps.setLong(2, targetEndId);
-
-            int count = 0;
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    String cursorVal = rs.getString(task.idColumn());
-                    String pkColName = (task.pkColumn() != null && !task.pkColumn().isBlank()) ? task.pkColumn() : task.idColumn();
-                    String esIdVal = rs.getString(pkColName);
-                    String json = JsonUtil.resultSetToJson(rs);
+    /**
+     * 读取一页回溯数据 (按 ID 排序分页，内存占用以修复通道容量为上限)
+     * @return 是否读取了一页 (修复通道已满时跳过)
+     */
+    private boolean performRewindPage() throws InterruptedException {
+        int limit = readController.getPageLimit();
+        for (Output output : outputs) {
+            limit = Math.min(limit, output.channel().getRepairCapacity());
+        }
+        for (Output output : outputs) {
+            // 修复数据尚未消费完，本轮跳过，下一轮再试
+            if (output.acceptsRepair() && !output.channel().hasRepairRoom(limit)) return false;
+        }
 
-                    // 🟢 关键：标记 isRepair=true，告诉 Sink 不要更新 Checkpoint
-                    queue.put(new SyncData(Long.parseLong(cursorVal), null, esIdVal, json, true));
-                    count++;
+        // 按 ID 排序分页，Sink 按批次最大修复 ID 保存的回溯进度不会越过未写入的数据
+        String sql = String.format("SELECT %s FROM %s WHERE %s > ? AND %s <= ? ORDER BY %s ASC LIMIT ?",
+                task.columns(), task.tableName(), task.idColumn(), task.idColumn(), task.idColumn());
+
+        // 回溯查询同样计入全局限流
+        readController.beforeQuery();
+        int reserved = readController.reserveRows(limit, true);
+        long startTime = System.currentTimeMillis();
+        try {
+            Page page;
+            try (Connection conn = readController.scanDataSource(rewindTargetId).getConnection()) {
+                boolean autoCommit = beginCursorRead(conn);
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setFetchSize(readController.getFetchSize());
+                    ps.setLong(1, rewindStartId);
+                    ps.setLong(2, rewindTargetId);
+                    ps.setInt(3, limit);
+
+                    long queryStart = System.nanoTime();
+                    try (ResultSet rs = ps.executeQuery()) {
+                        page = readPage(rs, queryStart);
+                    }
+                } finally {
+                    endCursorRead(conn, autoCommit);
                 }
             }
+            // 连接已归还后再放入修复通道
+            // 🟢 关键：标记 isRepair=true，告诉 Sink 不要更新 Checkpoint
+            int count = emitPage(page, true);
+            if (recorder != null) recorder.offer(tracePage, startTime, System.currentTimeMillis() - startTime, true);
+            readController.settleRows(reserved, count, limit, true);
+            rewindRows += count;
+
+            if (count >= limit) {
+                // 还有下一页
+                this.rewindStartId = lastEmittedId;
+                if (rollup != null) rollup.onRewindAdvanced(lastEmittedId);
+                return true;
+            }
 
-            if (count > 0) {
-                log.info("🔄 [回溯校验] 发现 {} 条数据，已推送到 ES 进行修补", count);
+            if (rewindRows > 0) {
+                log.info("🔄 [回溯校验] 发现 {} 条数据，已推送到 ES 进行修补", rewindRows);
                 // 有数据时，由 Sink 负责保存进度
-                this.rewindStartId = targetEndId;
             } else {
                 // 🟢 关键：如果范围内没有数据，说明是安全的，直接保存回溯进度
-                log.info("🔄 [回溯校验] 范围无数据，直接推进回溯进度至 {}", targetEndId);
-                checkpointManager.saveRewind(task.tableName(), targetEndId);
-                this.rewindStartId = targetEndId;
+                log.info("🔄 [回溯校验] 范围无数据，直接推进回溯进度至 {}", rewindTargetId);
+                for (Output output : outputs) {
+                    checkpointManager.saveRewind(output.checkpointKey(), rewindTargetId);
+                }
             }
+            this.rewindStartId = rewindTargetId;
+            if (rollup != null) rollup.onRewindAdvanced(rewindTargetId);
+            finishRewindCheck();
+            return true;
+        } catch (InterruptedException e) {
+            throw e;
         } catch (Exception e) {
+            // 已读取的页保留在 rewindStartId 中，下一轮从断点继续
             log.error("⚠️ 回溯校验失败 (不影响主流程): {}", e.getMessage());
+            finishRewindCheck();
+            return false;
+        }
+    }
+
+    private void finishRewindCheck() {
+        this.rewindTargetId = -1;
+        this.lastRewindTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 以游标方式读取：关闭自动提交，配合 setFetchSize 让驱动分批取回结果 (PostgreSQL 等需要在事务中才使用游标)
+     * @return 原自动提交设置，由 endCursorRead 恢复
+     */
+    private static boolean beginCursorRead(Connection conn) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        if (autoCommit) conn.setAutoCommit(false);
+        return autoCommit;
+    }
+
+    /**
+     * 结束只读事务并恢复自动提交，连接归还连接池时保持原状态
+     */
+    private void endCursorRead(Connection conn, boolean autoCommit) {
+        try {
+            conn.rollback();
+            if (autoCommit) conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            log.warn("任务 [{}] 恢复连接自动提交失败: {}", task.tableName(), e.getMessage());
+        }
+    }
+
+    /**
+     * 读完整页结果集 (游标方式分批取回)，读取期间不放入通道，避免背压等待让只读事务长时间保持打开
+     * 包含大字段时，大字段直接写入编码结果；配置了维表关联时关联字段在整页关联后追加到编码结果末尾
+     * (关联写入的 targetField 与结果集中的列同名时会覆盖该列，此时仍完整读入)
+     * @param queryStart executeQuery 开始时间 (System.nanoTime)
+     */
+    private Page readPage(ResultSet rs, long queryStart) throws Exception {
+        long dbNanos = System.nanoTime() - queryStart;
+        List<PendingRow> rows = new ArrayList<>();
+        RowEncoder.Columns columns = rowEncoder.columns(rs.getMetaData());
+        boolean streamed = columns.hasStreamed() && !lookupOverwritesColumn(columns);
+
+        while (true) {
+            // 游标方式下 rs.next() 会按 fetchSize 向数据库取下一批，计入数据库耗时
+            long fetchStart = System.nanoTime();
+            boolean hasNext = rs.next();
+            dbNanos += System.nanoTime() - fetchStart;
+            if (!hasNext) break;
+
+            // A. 获取分页游标值 (用于进度记录，必须是数字)
+            long cursor = Long.parseLong(rs.getString(task.idColumn()));
+            lastEmittedId = cursor;
+            // B. 获取业务去重主键 (用于 ES _id)
+            String esIdVal = rs.getString(pkColName);
+
+            // C. 大字段直接编码，其余暂存文档 (放入通道前再关联、编码)
+            if (streamed) {
+                RowEncoder.Row row = rowEncoder.encode(rs, columns);
+                rows.add(new PendingRow(cursor, esIdVal, row.doc(), row));
+            } else {
+                rows.add(new PendingRow(cursor, esIdVal, JsonUtil.resultSetToNode(rs, 1), null));
+            }
+            rowsRead.incrementAndGet();
+        }
+        return new Page(rows, columns, dbNanos / 1_000_000);
+    }
+
+    /**
+     * 是否有维表关联的 targetField 与结果集中的列同名 (关联结果会覆盖该列，不能追加到已编码文档)
+     */
+    private boolean lookupOverwritesColumn(RowEncoder.Columns columns) {
+        if (enricher == null) return false;
+        for (AppConfig.LookupConfig lookup : task.lookups()) {
+            String target = lookup.targetField();
+            if (target != null && !target.isBlank() && columns.hasLabel(target)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 将一页数据放入队列
+     * 配置了维表关联时，整页做一次批量关联后再放入队列
+     * @return 读取的行数
+     */
+    private int emitPage(Page page, boolean isRepair) throws Exception {
+        tracePage.clear();
+        List<PendingRow> rows = page.rows();
+        if (rows.isEmpty()) return 0;
+        if (enricher != null) {
+            List<ObjectNode> docs = new ArrayList<>(rows.size());
+            for (PendingRow row : rows) docs.add(row.doc());
+            // 整页一次批量关联
+            enricher.enrich(docs);
+        }
+
+        for (PendingRow row : rows) {
+            if (rollup != null) rollup.onRow(row.cursor(), row.doc(), isRepair);
+            if (row.encoded() == null) {
+                dispatch(encode(row.cursor(), row.esIdVal(), row.doc(), isRepair));
+            } else if (enricher != null) {
+                dispatch(toSyncData(row.cursor(), row.esIdVal(), rowEncoder.append(row.encoded(), page.columns()), isRepair));
+            } else {
+                dispatch(toSyncData(row.cursor(), row.esIdVal(), row.encoded(), isRepair));
+            }
+        }
+        return rows.size();
+    }
+
+    private SyncData toSyncData(long cursor, String esIdVal, RowEncoder.Row row, boolean isRepair) {
+        return new SyncData(cursor, null, esIdVal, row.json(), isRepair, row.smile(), routeDay(row.doc()));
+    }
+
+    private SyncData encode(long cursor, String esIdVal, ObjectNode doc, boolean isRepair) {
+        int routeDay = routeDay(doc);
+        return smile
+                ? new SyncData(cursor, null, esIdVal, null, isRepair, JsonUtil.toSmile(doc), routeDay)
+                : new SyncData(cursor, null, esIdVal, JsonUtil.toJson(doc), isRepair, null, routeDay);
+    }
+
+    /**
+     * 文档所属日期 (用于按日期路由索引)，未配置 indexDateColumn 或值为空时返回 NO_ROUTE_DAY
+     */
+    private int routeDay(ObjectNode doc) {
+        if (task.indexDateColumn() == null) return SyncData.NO_ROUTE_DAY;
+        Long millis = JsonUtil.epochMillis(doc.get(task.indexDateColumn()));
+        if (millis == null) return SyncData.NO_ROUTE_DAY;
+        return (int) LocalDate.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()).toEpochDay();
+    }
+
+    private void dispatch(SyncData data) throws InterruptedException {
+        // D. 放入队列 (如果队列满，这里会阻塞等待 Sink 消费，实现背压)
+        // 同一个对象放入所有输出，只读取、编码一次；最慢的目标决定整体读取速度
+        for (int i = 0; i < outputs.size(); i++) {
+            if (!data.isRepair() && data.idCursorVal() <= resumeAfter[i]) continue; // 该目标已写入过
+            if (data.isRepair() && !outputs.get(i).acceptsRepair()) continue;
+            outputs.get(i).channel().put(data);
+        }
+        if (recorder != null) tracePage.add(data);
+        // 更新内存中的进度
+        if (!data.isRepair()) {
+            currentId = data.idCursorVal();
         }
     }
 
@@ -0,0 +1,138 @@
+package com.lhcz.db2es.core;
+
+import com.lhcz.db2es.config.AppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 同步延迟监控
+ * 定期为每个任务执行一条轻量 SQL (仅走 idColumn 索引的 MAX / ORDER BY ... LIMIT 1)，
+ * 计算落后行数、落后时间，并根据最近的追赶速度估算追平时间 (ETA)。
+ * 进度取各写入目标已确认 (写入 ES 成功) 的 checkpoint，而不是读取游标，ES 写入成为瓶颈时延迟同样能体现出来。
+ */
+public class LagMonitor implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(LagMonitor.class);
+
+    // 追赶速度的指数平滑系数
+    private static final double RATE_ALPHA = 0.3;
+
+    /**
+     * @param rowsBehind    落后行数 (按 idColumn 差值估算，存在空洞时偏大)
+     * @param secondsBehind 落后时间 (最新数据时间 - 已确认进度数据时间)，未配置 timestampColumn 时为 null
+     * @param etaSeconds    预计追平时间，已追平为 0，无进展时为 null
+     */
+    public record LagStatus(long maxId, long rowsBehind, Long secondsBehind, Double etaSeconds,
+                            double idsPerSecond, boolean alert, long sampledAt) {}
+
+    private final DataSource ds;
+    private final List<JdbcSource> sources;
+    private final long intervalMs;
+    private final Long alertRowsBehind;
+    private final Long alertSecondsBehind;
+
+    private final Map<String, LagStatus> statuses = new ConcurrentHashMap<>();
+    // 上次采样的进度，用于计算追赶速度
+    private final Map<String, long[]> lastProgress = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+
+    public LagMonitor(DataSource ds, List<JdbcSource> sources, AppConfig.LagConfig config) {
+        this.ds = ds;
+        this.sources = sources;
+        this.intervalMs = (config != null && config.intervalMs() != null) ? config.intervalMs() : 30000L;
+        this.alertRowsBehind = config != null ? config.alertRowsBehind() : null;
+        this.alertSecondsBehind = config != null ? config.alertSecondsBehind() : null;
+    }
+
+    public LagStatus getStatus(String tableName) {
+        return statuses.get(tableName);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            for (JdbcSource source : sources) {
+                try {
+                    sample(source);
+                } catch (Exception e) {
+                    log.warn("⚠️ 延迟采样失败 [{}]: {}", source.getTaskConfig().tableName(), e.getMessage());
+                }
+            }
+            try {
+                Thread.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void sample(JdbcSource source) throws Exception {
+        AppConfig.TaskConfig task = source.getTaskConfig();
+        long cursor = source.getCommittedId();
+        String ts = task.timestampColumn();
+        boolean hasTs = ts != null && !ts.isBlank();
+
+        // 一次往返完成全部采样，各子查询均可直接走 idColumn 索引
+        String sql = hasTs
+                ? String.format("SELECT (SELECT MAX(%1$s) FROM %2$s), "
+                        + "(SELECT %3$s FROM %2$s ORDER BY %1$s DESC LIMIT 1), "
+                        + "(SELECT %3$s FROM %2$s WHERE %1$s <= ? ORDER BY %1$s DESC LIMIT 1)",
+                        task.idColumn(), task.tableName(), ts)
+                : String.format("SELECT MAX(%s) FROM %s", task.idColumn(), task.tableName());
+
+        long maxId;
+        Long secondsBehind = null;
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            if (hasTs) ps.setLong(1, cursor);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return;
+                maxId = rs.getLong(1);
+                if (hasTs) {
+                    Timestamp latest = rs.getTimestamp(2);
+                    Timestamp current = rs.getTimestamp(3);
+                    if (latest != null && current != null) {
+                        secondsBehind = Math.max(0, (latest.getTime() - current.getTime()) / 1000);
+                    }
+                }
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        String table = task.tableName();
+        long rowsBehind = Math.max(0, maxId - cursor);
+
+        // 追赶速度：两次采样间进度推进的 ID 数 / 时间，指数平滑
+        double rate = 0;
+        long[] prev = lastProgress.put(table, new long[]{cursor, now});
+        LagStatus prevStatus = statuses.get(table);
+        if (prev != null && now > prev[1]) {
+            double instant = Math.max(0, cursor - prev[0]) * 1000.0 / (now - prev[1]);
+            rate = prevStatus != null ? RATE_ALPHA * instant + (1 - RATE_ALPHA) * prevStatus.idsPerSecond() : instant;
+        }
+        Double eta = rowsBehind == 0 ? Double.valueOf(0) : (rate > 0 ? rowsBehind / rate : null);
+
+        boolean alert = (alertRowsBehind != null && rowsBehind > alertRowsBehind)
+                || (alertSecondsBehind != null && secondsBehind != null && secondsBehind > alertSecondsBehind);
+        boolean wasAlert = prevStatus != null && prevStatus.alert();
+        if (alert && !wasAlert) {
+            log.warn("🚨 [延迟告警] 表[{}] 落后 {} 行, {} 秒, 预计追平 {}", table, rowsBehind,
+                    secondsBehind != null ? secondsBehind : "-", eta != null ? Math.round(eta) + "s" : "未知");
+        } else if (!alert && wasAlert) {
+            log.info("✅ [延迟恢复] 表[{}] 落后 {} 行", table, rowsBehind);
+        }
+
+        statuses.put(table, new LagStatus(maxId, rowsBehind, secondsBehind, eta, rate, alert, now));
+    }
+
+    public void stop() { this.running = false; }
+}
@@ -0,0 +1,387 @@
+package com.lhcz.db2es.core;
+
+import com.lhcz.db2es.config.AppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 多实例任务分配协调器
+ * 多个 db2es 进程通过源库中的租约表协调：每个任务一行租约，持有者定期续约，过期后可被其他实例接管。
+ * 实例心跳表用于感知实例加入/离开，每个实例最多持有 ceil(任务数 / 存活实例数) 个任务，超出部分主动释放。
+ * 任务优先级采用 rendezvous 哈希，实例数不变时分配结果稳定，减少任务来回迁移。
+ * 任务在后台线程中停止 (停止期间继续续约，停止后才释放租约)，不阻塞其他任务的续约；
+ * 数据库不可达导致无法续约时，在租约到期前主动停止本地任务，防止与接管的实例同时写入。
+ * 任务进度在续约后合并写入 (JdbcCheckpointManager.flush)，停止任务后、释放租约前再写入一次。
+ * 注意：租约时间使用各实例本地时钟，部署时需保证 NTP 同步 (误差应远小于 leaseTtlMs)。
+ */
+public class LeaseCoordinator implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(LeaseCoordinator.class);
+
+    /**
+     * 任务启停回调
+     */
+    public interface Listener {
+        void onAcquired(String task);
+
+        /**
+         * 任务被释放或租约丢失，实现方需在返回前停止该任务
+         */
+        void onRevoked(String task);
+    }
+
+    private final DataSource ds;
+    private final String instanceId;
+    private final long leaseTtlMs;
+    private final long heartbeatIntervalMs;
+    private final String leaseTable;
+    private final String instanceTable;
+    private final List<String> tasks;
+    private final Listener listener;
+    private final JdbcCheckpointManager checkpointManager;
+
+    // 本地运行中的任务 (包括正在停止的)
+    private final Set<String> owned = new LinkedHashSet<>();
+    // 已撤销、正在后台停止的任务 (停止完成前不会再次获取)
+    private final Set<String> stopping = ConcurrentHashMap.newKeySet();
+    // 仍在续约的任务 -> 最近一次成功续约 (或获取) 的时间
+    private final Map<String, Long> renewedAt = new ConcurrentHashMap<>();
+    private final ExecutorService revoker = Executors.newVirtualThreadPerTaskExecutor();
+    // 超过该时长未能续约时停止本地任务，留出一个心跳间隔使停止先于租约到期
+    private final long renewDeadlineMs;
+    private volatile boolean running = true;
+
+    public LeaseCoordinator(DataSource ds, AppConfig.ClusterConfig config, List<String> tasks, Listener listener) {
+        this.ds = ds;
+        this.instanceId = (config.instanceId() != null && !config.instanceId().isBlank())
+                ? config.instanceId() : defaultInstanceId();
+        this.leaseTtlMs = config.leaseTtlMs() != null ? config.leaseTtlMs() : 15000L;
+        this.heartbeatIntervalMs = config.heartbeatIntervalMs() != null ? config.heartbeatIntervalMs() : 5000L;
+        this.leaseTable = config.leaseTable() != null ? config.leaseTable() : "db2es_lease";
+        this.instanceTable = config.instanceTable() != null ? config.instanceTable() : "db2es_instance";
+        this.tasks = List.copyOf(tasks);
+        this.listener = listener;
+        this.checkpointManager = new JdbcCheckpointManager(ds, leaseTable, instanceId);
+        this.renewDeadlineMs = Math.max(leaseTtlMs / 2, leaseTtlMs - heartbeatIntervalMs);
+    }
+
+    public JdbcCheckpointManager getCheckpointManager() { return checkpointManager; }
+    public String getInstanceId() { return instanceId; }
+
+    public synchronized Set<String> getOwnedTasks() { return Set.copyOf(owned); }
+
+    /**
+     * 建表并为每个任务初始化租约行
+     */
+    public void init() throws SQLException {
+        try (Connection conn = ds.getConnection();
+             Statement st = conn.createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS " + leaseTable + " ("
+                    + "task_name VARCHAR(200) PRIMARY KEY, "
+                    + "owner VARCHAR(200), "
+                    + "lease_until BIGINT NOT NULL DEFAULT 0, "
+                    + "state TEXT)");
+            st.execute("CREATE TABLE IF NOT EXISTS " + instanceTable + " ("
+                    + "instance_id VARCHAR(200) PRIMARY KEY, "
+                    + "heartbeat_at BIGINT NOT NULL)");
+        }
+        for (String task : tasks) {
+            try (Connection conn = ds.getConnection();
+                 PreparedStatement check = conn.prepareStatement("SELECT 1 FROM " + leaseTable + " WHERE task_name = ?")) {
+                check.setString(1, task);
+                try (ResultSet rs = check.executeQuery()) {
+                    if (rs.next()) continue;
+                }
+                try (PreparedStatement ins = conn.prepareStatement(
+                        "INSERT INTO " + leaseTable + " (task_name, owner, lease_until) VALUES (?, NULL, 0)")) {
+                    ins.setString(1, task);
+                    ins.executeUpdate();
+                } catch (SQLException e) {
+                    // 其他实例并发插入，忽略
+                    log.debug("租约行 [{}] 已由其他实例创建", task);
+                }
+            }
+        }
+        log.info("🤝 集群模式已启用: 实例 [{}], 任务 {} 个, 租约有效期 {}ms, 心跳间隔 {}ms",
+                instanceId, tasks.size(), leaseTtlMs, heartbeatIntervalMs);
+    }
+
+    @Override
+    public void run() {
+        revoker.submit(this::watchRenewals);
+        while (running) {
+            try {
+                tick();
+            } catch (Exception e) {
+                log.error("⚠️ 租约协调异常 (可能是数据库断连): {}", e.getMessage());
+            }
+            try {
+                Thread.sleep(heartbeatIntervalMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    synchronized void tick() throws SQLException {
+        if (!running) return;
+        long now = System.currentTimeMillis();
+        heartbeat(now);
+
+        int live = Math.max(1, countLiveInstances(now));
+        int fairShare = (tasks.size() + live - 1) / live;
+
+        // 1. 续约 (包括正在停止、停止后才释放的任务)；续约失败说明租约已过期并被接管，立即停止本地任务
+        for (String task : new ArrayList<>(renewedAt.keySet())) {
+            if (renew(task, now)) {
+                renewedAt.replace(task, now); // 期间已被 watchRenewals 放弃的任务不再恢复
+                checkpointManager.flush(task);
+            } else {
+                renewedAt.remove(task);
+                if (owned.contains(task) && !stopping.contains(task)) {
+                    log.warn("⚠️ 任务 [{}] 租约丢失，停止本地任务", task);
+                    revoke(task, false);
+                }
+            }
+        }
+
+        List<String> ranked = rankedTasks();
+        int active = 0;
+        for (String task : owned) {
+            if (!stopping.contains(task)) active++;
+        }
+
+        // 2. 有新实例加入：释放超出份额的任务 (优先释放本实例排名最低的)
+        for (int i = ranked.size() - 1; i >= 0 && active > fairShare; i--) {
+            String task = ranked.get(i);
+            if (owned.contains(task) && !stopping.contains(task)) {
+                log.info("⚖️ 重新均衡: 存活实例 {} 个，释放任务 [{}]", live, task);
+                revoke(task, true);
+                active--;
+            }
+        }
+
+        // 3. 份额未满：抢占空闲或已过期的租约 (实例宕机后由此接管)
+        for (String task : ranked) {
+            if (active >= fairShare) break;
+            if (owned.contains(task)) continue; // 包括正在停止的任务，停止完成前不会再次获取
+            if (tryAcquire(task, now)) {
+                checkpointManager.invalidate(task);
+                try {
+                    listener.onAcquired(task);
+                    owned.add(task);
+                    renewedAt.put(task, now);
+                    active++;
+                    log.info("✅ 获得任务 [{}] 租约", task);
+                } catch (Exception e) {
+                    log.error("❌ 任务 [{}] 启动失败，释放租约: {}", task, e.getMessage());
+                    release(task);
+                }
+            }
+        }
+    }
+
+    /**
+     * 在后台线程中停止任务，不占用协调锁，停止期间其他任务照常续约
+     * @param release true 时停止期间继续续约，停止完成后才释放租约 (避免其他实例提前接管)；租约已丢失时为 false
+     */
+    private void revoke(String task, boolean release) {
+        if (!stopping.add(task)) return;
+        if (!release) renewedAt.remove(task);
+        revoker.submit(() -> {
+            try {
+                listener.onRevoked(task);
+            } catch (Exception e) {
+                log.error("❌ 停止任务 [{}] 异常: {}", task, e.toString());
+            }
+            // 写入停止前最后的进度 (租约已被接管时按持有者校验丢弃)
+            checkpointManager.flush(task);
+            synchronized (this) {
+                owned.remove(task);
+                stopping.remove(task);
+                if (renewedAt.remove(task) != null && release) {
+                    try {
+                        release(task);
+                    } catch (SQLException e) {
+                        log.warn("释放任务 [{}] 租约失败，将在过期后由其他实例接管: {}", task, e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 续约看门狗 (不获取协调锁，tick 阻塞在数据库连接上时仍能执行)
+     * 长时间未能续约 (如数据库不可达) 时停止本地任务：租约到期后其他实例可能已接管，继续运行会重复写入
+     */
+    private void watchRenewals() {
+        while (running) {
+            try {
+                Thread.sleep(Math.min(heartbeatIntervalMs, 1000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Long> e : renewedAt.entrySet()) {
+                String task = e.getKey();
+                if (stopping.contains(task) || now - e.getValue() < renewDeadlineMs) continue;
+                log.warn("⚠️ 任务 [{}] 已 {}ms 未能续约，租约即将到期，停止本地任务", task, now - e.getValue());
+                revoke(task, false);
+            }
+        }
+    }
+
+    /**
+     * 停止协调：停止本地任务并主动释放租约，使其他实例可以立即接管
+     * 正在后台停止的任务由停止线程在结束后释放
+     */
+    public synchronized void shutdown() {
+        running = false;
+        revoker.shutdown();
+        for (String task : new ArrayList<>(owned)) {
+            if (stopping.contains(task)) continue;
+            listener.onRevoked(task);
+            checkpointManager.flush(task);
+            owned.remove(task);
+            renewedAt.remove(task);
+            try {
+                release(task);
+            } catch (SQLException e) {
+                log.warn("释放任务 [{}] 租约失败，将在过期后由其他实例接管: {}", task, e.getMessage());
+            }
+        }
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement("DELETE FROM " + instanceTable + " WHERE instance_id = ?")) {
+            ps.setString(1, instanceId);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            log.warn("注销实例 [{}] 失败: {}", instanceId, e.getMessage());
+        }
+    }
+
+    private void heartbeat(long now) throws SQLException {
+        try (Connection conn = ds.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "UPDATE " + instanceTable + " SET heartbeat_at = ? WHERE instance_id = ?")) {
+                ps.setLong(1, now);
+                ps.setString(2, instanceId);
+                if (ps.executeUpdate() == 0) {
+                    try (PreparedStatement ins = conn.prepareStatement(
+                            "INSERT INTO " + instanceTable + " (instance_id, heartbeat_at) VALUES (?, ?)")) {
+                        ins.setString(1, instanceId);
+                        ins.setLong(2, now);
+                        ins.executeUpdate();
+                    }
+                }
+            }
+            // 清理长时间无心跳的实例记录
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "DELETE FROM " + instanceTable + " WHERE heartbeat_at < ?")) {
+                ps.setLong(1, now - leaseTtlMs * 10);
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    private int countLiveInstances(long now) throws SQLException {
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement(
+                     "SELECT COUNT(*) FROM " + instanceTable + " WHERE heartbeat_at >= ?")) {
+            ps.setLong(1, now - leaseTtlMs);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 1;
+            }
+        }
+    }
+
+    private boolean renew(String task, long now) throws SQLException {
+        return update("UPDATE " + leaseTable + " SET lease_until = ? WHERE task_name = ? AND owner = ?",
+                now + leaseTtlMs, task, instanceId) > 0;
+    }
+
+    private boolean tryAcquire(String task, long now) throws SQLException {
+        String sql = "UPDATE " + leaseTable + " SET owner = ?, lease_until = ? "
+                + "WHERE task_name = ? AND (owner IS NULL OR owner = ? OR lease_until < ?)";
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, instanceId);
+            ps.setLong(2, now + leaseTtlMs);
+            ps.setString(3, task);
+            ps.setString(4, instanceId);
+            ps.setLong(5, now);
+            return ps.executeUpdate() > 0;
+        }
+    }
+
+    private void release(String task) throws SQLException {
+        update("UPDATE " + leaseTable + " SET owner = NULL, lease_until = ? WHERE task_name = ? AND owner = ?",
+                0L, task, instanceId);
+    }
+
+    private int update(String sql, long value, String task, String owner) throws SQLException {
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, value);
+            ps.setString(2, task);
+            ps.setString(3, owner);
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * 按 rendezvous 哈希对任务排序：得分越高，本实例越优先持有
+     */
+    private List<String> rankedTasks() {
+        List<String> ranked = new ArrayList<>(tasks);
+        ranked.sort(Comparator.comparingLong((String t) -> score(instanceId + "|" + t)).reversed());
+        return ranked;
+    }
+
+    /**
+     * rendezvous 得分：FNV-1a 64 位哈希再做一次混合，使相近的实例名/任务名也能得到分散的得分
+     * 各实例必须使用相同的算法，修改后所有实例需同时升级
+     */
+    static long score(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static String defaultInstanceId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + "-" + ManagementFactory.getRuntimeMXBean().getPid();
+    }
+}
@@ -0,0 +1,97 @@
+package com.lhcz.db2es.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 维表查询结果缓存
+ * LRU 淘汰 + TTL 过期 + 按估算内存大小限流，防止维表过大撑爆堆内存。
+ * 未命中的 key 也会缓存 (值为空)，避免反复查询不存在的外键。
+ */
+public class LookupCache {
+
+    private record Entry(JsonNode value, long expireAt, long bytes) {}
+
+    private final int maxEntries;
+    private final long ttlMs;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> map = new LinkedHashMap<>(1024, 0.75f, true);
+    private long usedBytes;
+
+    private long hits;
+    private long misses;
+
+    public LookupCache(int maxEntries, long ttlMs, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return 缓存值；未命中或已过期返回 null
+     */
+    public synchronized JsonNode get(String key) {
+        Entry e = map.get(key);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        if (e.expireAt() < System.currentTimeMillis()) {
+            map.remove(key);
+            usedBytes -= e.bytes();
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.value();
+    }
+
+    public synchronized void put(String key, JsonNode value) {
+        long bytes = estimateBytes(value) + key.length() * 2L + 64;
+        Entry old = map.put(key, new Entry(value, System.currentTimeMillis() + ttlMs, bytes));
+        if (old != null) usedBytes -= old.bytes();
+        usedBytes += bytes;
+        evict();
+    }
+
+    private void evict() {
+        // 按访问顺序从最久未使用的开始淘汰
+        Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+        while (it.hasNext() && (map.size() > maxEntries || usedBytes > maxBytes)) {
+            usedBytes -= it.next().getValue().bytes();
+            it.remove();
+        }
+    }
+
+    public synchronized int size() { return map.size(); }
+    public synchronized long getUsedBytes() { return usedBytes; }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+
+    /**
+     * 粗略估算 JsonNode 占用的堆内存 (不追求精确，只用于限流)
+     */
+    static long estimateBytes(JsonNode node) {
+        if (node == null) return 16;
+        if (node.isContainerNode()) {
+            long total = 48;
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            if (node.isObject()) {
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> f = fields.next();
+                    total += 32 + f.getKey().length() * 2L + estimateBytes(f.getValue());
+                }
+            } else {
+                for (JsonNode child : node) total += 8 + estimateBytes(child);
+            }
+            return total;
+        }
+        if (node.isPojo() || node.isTextual()) {
+            return 40 + node.asText().length() * 2L;
+        }
+        return 24;
+    }
+}
@@ -0,0 +1,167 @@
+package com.lhcz.db2es.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.POJONode;
+import com.lhcz.db2es.config.AppConfig;
+import com.lhcz.db2es.util.JsonUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 维表关联 (文档宽表化)
+ * 对一页数据统一收集外键，每个维表只发一次 IN (...) 查询，结果经 LookupCache 缓存复用。
+ * 避免在数据库中为每行执行 JOIN 视图。
+ */
+public class LookupEnricher {
+    private static final Logger log = LoggerFactory.getLogger(LookupEnricher.class);
+
+    // 单条 SQL 最多绑定的参数个数 (PostgreSQL 上限 32767)
+    private static final int MAX_IN_PARAMS = 5000;
+    // 列别名：维表关联列固定放在第一列，便于按列号读取
+    private static final String KEY_ALIAS = "__db2es_lk";
+
+    private final DataSource ds;
+    private final List<Lookup> lookups = new ArrayList<>();
+
+    private record Lookup(AppConfig.LookupConfig config, boolean multi, LookupCache cache, String sqlPrefix) {}
+
+    public LookupEnricher(DataSource ds, List<AppConfig.LookupConfig> configs) {
+        this.ds = ds;
+        for (AppConfig.LookupConfig c : configs) {
+            boolean multi = Boolean.TRUE.equals(c.multi());
+            if (multi && (c.targetField() == null || c.targetField().isBlank())) {
+                throw new IllegalArgumentException("一对多维表关联必须配置 targetField: " + c.table());
+            }
+            int maxEntries = c.cacheMaxEntries() != null ? c.cacheMaxEntries() : 100000;
+            long ttl = c.cacheTtlMs() != null ? c.cacheTtlMs() : 600000L;
+            long maxBytes = c.cacheMaxBytes() != null ? c.cacheMaxBytes() : 64L * 1024 * 1024;
+            String columns = (c.columns() != null && !c.columns().isBlank()) ? c.columns() : "*";
+            String sqlPrefix = String.format("SELECT %s AS %s, %s FROM %s WHERE %s IN (",
+                    c.lookupKeyColumn(), KEY_ALIAS, columns, c.table(), c.lookupKeyColumn());
+            lookups.add(new Lookup(c, multi, new LookupCache(maxEntries, ttl, maxBytes), sqlPrefix));
+        }
+    }
+
+    /**
+     * 对一页文档执行关联，直接修改传入的 ObjectNode
+     */
+    public void enrich(List<ObjectNode> docs) throws Exception {
+        if (docs.isEmpty()) return;
+        for (Lookup lookup : lookups) {
+            enrich(lookup, docs);
+        }
+    }
+
+    private void enrich(Lookup lookup, List<ObjectNode> docs) throws Exception {
+        AppConfig.LookupConfig c = lookup.config();
+
+        // 1. 收集本页外键，先查缓存
+        Map<String, JsonNode> resolved = new HashMap<>();
+        Map<String, Object> missing = new LinkedHashMap<>();
+        for (ObjectNode doc : docs) {
+            JsonNode keyNode = doc.get(c.keyColumn());
+            if (keyNode == null || keyNode.isNull()) continue;
+            String key = keyNode.asText();
+            if (resolved.containsKey(key) || missing.containsKey(key)) continue;
+
+            JsonNode cached = lookup.cache().get(key);
+            if (cached != null) {
+                resolved.put(key, cached);
+            } else {
+                // 保留原始类型用于绑定参数，避免数字列与字符串参数比较报错
+                missing.put(key, keyNode instanceof POJONode p ? p.getPojo() : key);
+            }
+        }
+
+        // 2. 未命中的 key 合并为一次 IN 查询
+        if (!missing.isEmpty()) {
+            long start = System.currentTimeMillis();
+            Map<String, JsonNode> loaded = query(lookup, missing);
+            for (String key : missing.keySet()) {
+                JsonNode value = loaded.get(key);
+                if (value == null) {
+                    value = lookup.multi() ? JsonUtil.mapper().createArrayNode() : NullNode.getInstance();
+                }
+                lookup.cache().put(key, value);
+                resolved.put(key, value);
+            }
+            log.debug("维表 [{}] 批量查询 {} 个 key，耗时 {}ms，缓存 {} 条",
+                    c.table(), missing.size(), System.currentTimeMillis() - start, lookup.cache().size());
+        }
+
+        // 3. 合并到文档
+        for (ObjectNode doc : docs) {
+            JsonNode keyNode = doc.get(c.keyColumn());
+            if (keyNode == null || keyNode.isNull()) continue;
+            JsonNode value = resolved.get(keyNode.asText());
+            if (value == null || value.isNull()) continue;
+
+            if (c.targetField() != null && !c.targetField().isBlank()) {
+                doc.set(c.targetField(), value);
+            } else {
+                // 平铺合并：不覆盖主表已有字段
+                Iterator<Map.Entry<String, JsonNode>> fields = value.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> f = fields.next();
+                    if (!doc.has(f.getKey())) doc.set(f.getKey(), f.getValue());
+                }
+            }
+        }
+    }
+
+    private Map<String, JsonNode> query(Lookup lookup, Map<String, Object> keys) throws Exception {
+        Map<String, JsonNode> result = new HashMap<>();
+        List<Object> params = new ArrayList<>(keys.values());
+
+        try (Connection conn = ds.getConnection()) {
+            for (int from = 0; from < params.size(); from += MAX_IN_PARAMS) {
+                List<Object> chunk = params.subList(from, Math.min(params.size(), from + MAX_IN_PARAMS));
+                StringBuilder sql = new StringBuilder(lookup.sqlPrefix());
+                for (int i = 0; i < chunk.size(); i++) {
+                    sql.append(i == 0 ? "?" : ",?");
+                }
+                sql.append(")");
+
+                try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        ps.setObject(i + 1, chunk.get(i));
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            String key = rs.getString(1);
+                            ObjectNode row = JsonUtil.resultSetToNode(rs, 2);
+                            if (lookup.multi()) {
+                                JsonNode arr = result.computeIfAbsent(key, k -> JsonUtil.mapper().createArrayNode());
+                                ((ArrayNode) arr).add(row);
+                            } else {
+                                // 一对一：多条匹配时只取第一条
+                                result.putIfAbsent(key, row);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public List<LookupCache> getCaches() {
+        List<LookupCache> caches = new ArrayList<>();
+        for (Lookup l : lookups) caches.add(l.cache());
+        return caches;
+    }
+}
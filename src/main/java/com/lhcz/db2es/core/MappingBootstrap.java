@@ -0,0 +1,233 @@
+package com.lhcz.db2es.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.lhcz.db2es.config.AppConfig;
+import com.lhcz.db2es.util.JsonUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 显式 Mapping 初始化
+ * 启动时对任务查询 (含维表关联列) 执行 WHERE 1=0，根据 ResultSetMetaData 推导字段类型，叠加按列覆盖的配置，
+ * 通过索引模板 (_index_template，旧版本集群回退到 _template) 下发，并关闭动态 Mapping。
+ * 已存在的索引不受模板影响，会逐个比对并输出差异 (Mapping 漂移) 日志。
+ */
+public class MappingBootstrap {
+    private static final Logger log = LoggerFactory.getLogger(MappingBootstrap.class);
+    // 与 JsonUtil 的日期输出格式一致，同时兼容纯日期与毫秒时间戳
+    private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss||yyyy-MM-dd||strict_date_optional_time||epoch_millis";
+    private static final int MAX_DRIFT_LOGS = 20;
+
+    private final DataSource ds;
+    private final ObjectMapper mapper = JsonUtil.mapper();
+
+    public MappingBootstrap(DataSource ds) {
+        this.ds = ds;
+    }
+
+    /**
+     * 为一个写入目标生成并下发 Mapping，失败只记录日志，不影响同步
+     */
+    public void apply(AppConfig.TaskConfig task, EsSink sink) {
+        AppConfig.MappingConfig mc = task.mapping();
+        if (mc == null || !Boolean.TRUE.equals(mc.enabled())) return;
+        try {
+            ObjectNode mappings = derive(task, mc);
+            String pattern = sink.getEsIndex().replace("#(dtmon)", "*").replace("#(dtday)", "*");
+            putTemplate(sink.getNodePool(), templateName(sink), pattern, mappings, sink.isDataStream(), sink.getEsType());
+            reportDrift(sink.getNodePool(), pattern, (ObjectNode) mappings.get("properties"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("⚠️ [{}] 初始化 Mapping 失败，将继续使用 ES 动态 Mapping: {}", sink.getName(), e.toString());
+        }
+    }
+
+    private static String templateName(EsSink sink) {
+        return "db2es_" + sink.getName().replace('@', '_').toLowerCase();
+    }
+
+    /**
+     * 根据查询结果集元数据推导 Mapping
+     */
+    private ObjectNode derive(AppConfig.TaskConfig task, AppConfig.MappingConfig mc) throws Exception {
+        int keywordMaxLength = mc.keywordMaxLength() != null ? mc.keywordMaxLength() : 1024;
+        ObjectNode mappings = mapper.createObjectNode();
+        mappings.put("dynamic", mc.dynamic() != null ? mc.dynamic() : "false");
+        ObjectNode properties = mappings.putObject("properties");
+
+        describe(String.format("SELECT %s FROM %s WHERE 1=0", task.columns(), task.tableName()),
+                properties, keywordMaxLength);
+
+        // 维表关联带出的列：平铺合并时不覆盖主表字段，嵌套时放在 targetField 下
+        if (task.lookups() != null) {
+            for (AppConfig.LookupConfig lc : task.lookups()) {
+                String columns = (lc.columns() != null && !lc.columns().isBlank()) ? lc.columns() : "*";
+                String sql = String.format("SELECT %s FROM %s WHERE 1=0", columns, lc.table());
+                if (lc.targetField() == null || lc.targetField().isBlank()) {
+                    ObjectNode flat = mapper.createObjectNode();
+                    describe(sql, flat, keywordMaxLength);
+                    flat.fields().forEachRemaining(e -> {
+                        if (!properties.has(e.getKey())) properties.set(e.getKey(), e.getValue());
+                    });
+                } else {
+                    ObjectNode nested = properties.putObject(lc.targetField());
+                    nested.put("type", "object");
+                    describe(sql, nested.putObject("properties"), keywordMaxLength);
+                }
+            }
+        }
+
+        // 按列覆盖 (整体替换该字段的定义)
+        if (mc.fields() != null) {
+            for (Map.Entry<String, Map<String, Object>> e : mc.fields().entrySet()) {
+                properties.set(e.getKey(), mapper.valueToTree(e.getValue()));
+            }
+        }
+        return mappings;
+    }
+
+    private void describe(String sql, ObjectNode properties, int keywordMaxLength) throws Exception {
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            ResultSetMetaData meta = rs.getMetaData();
+            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                ObjectNode field = properties.putObject(meta.getColumnLabel(i));
+                String type = esType(meta.getColumnType(i), meta.getPrecision(i), keywordMaxLength);
+                field.put("type", type);
+                if ("date".equals(type)) field.put("format", DATE_FORMAT);
+            }
+        }
+    }
+
+    /**
+     * JDBC 类型 -> ES 字段类型
+     */
+    private static String esType(int sqlType, int precision, int keywordMaxLength) {
+        return switch (sqlType) {
+            case Types.BIGINT -> "long";
+            case Types.INTEGER -> "integer";
+            case Types.SMALLINT, Types.TINYINT -> "short";
+            case Types.REAL -> "float";
+            case Types.FLOAT, Types.DOUBLE, Types.NUMERIC, Types.DECIMAL -> "double";
+            case Types.BOOLEAN, Types.BIT -> "boolean";
+            case Types.DATE, Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE -> "date";
+            case Types.BINARY, Types.VARBINARY, Types.LONGVARBINARY, Types.BLOB -> "binary";
+            case Types.LONGVARCHAR, Types.LONGNVARCHAR, Types.CLOB, Types.NCLOB -> "text";
+            // 定长/短字符串用于精确匹配与聚合，长文本才做分词
+            case Types.CHAR, Types.NCHAR, Types.VARCHAR, Types.NVARCHAR ->
+                    (precision > 0 && precision <= keywordMaxLength) ? "keyword" : "text";
+            default -> "keyword";
+        };
+    }
+
+    private void putTemplate(EsNodePool nodePool, String name, String pattern, ObjectNode mappings,
+                             boolean dataStream, String esType) throws Exception {
+        ObjectNode body = mapper.createObjectNode();
+        body.putArray("index_patterns").add(pattern);
+        body.put("priority", 100);
+        // 数据流目标：模板需声明 data_stream，ES 在第一次写入时自动创建数据流
+        if (dataStream) body.putObject("data_stream");
+        body.putObject("template").set("mappings", mappings);
+
+        HttpResponse<String> resp = nodePool.send("PUT", "/_index_template/" + name, "application/json",
+                HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(body)));
+        if (!dataStream && (resp.statusCode() == 404 || (resp.statusCode() == 400 && resp.body().contains("index_template")))) {
+            // 7.8 之前的集群没有可组合模板，使用旧版 _template
+            ObjectNode legacy = mapper.createObjectNode();
+            legacy.putArray("index_patterns").add(pattern);
+            legacy.put("order", 100);
+            // 6.x 的 Mapping 需要一层类型名 (与 bulk 中的 _type 一致)，7.0 起默认不带类型
+            if (majorVersion(nodePool) < 7) {
+                legacy.putObject("mappings").set(esType, mappings);
+            } else {
+                legacy.set("mappings", mappings);
+            }
+            resp = nodePool.send("PUT", "/_template/" + name, "application/json",
+                    HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(legacy)));
+        }
+        if (resp.statusCode() != 200) {
+            throw new IllegalStateException("HTTP_" + resp.statusCode() + " " + resp.body());
+        }
+        log.info("🧩 已下发索引模板 [{}] -> {} ({} 个字段, dynamic={})", name, pattern,
+                mappings.get("properties").size(), mappings.get("dynamic").asText());
+    }
+
+    /**
+     * 集群主版本号 (GET /)，无法获取时按 7 处理
+     */
+    private int majorVersion(EsNodePool nodePool) throws Exception {
+        HttpResponse<String> resp = nodePool.send("GET", "/", "application/json", HttpRequest.BodyPublishers.noBody());
+        if (resp.statusCode() != 200) return 7;
+        String number = mapper.readTree(resp.body()).path("version").path("number").asText("");
+        int dot = number.indexOf('.');
+        try {
+            return Integer.parseInt(dot > 0 ? number.substring(0, dot) : number);
+        } catch (NumberFormatException e) {
+            return 7;
+        }
+    }
+
+    /**
+     * 比对已存在索引的 Mapping 与推导结果
+     */
+    private void reportDrift(EsNodePool nodePool, String pattern, ObjectNode expected) throws Exception {
+        HttpResponse<String> resp = nodePool.send("GET", "/" + pattern + "/_mapping?ignore_unavailable=true&allow_no_indices=true",
+                "application/json", HttpRequest.BodyPublishers.noBody());
+        if (resp.statusCode() != 200) return;
+
+        JsonNode root = mapper.readTree(resp.body());
+        Iterator<Map.Entry<String, JsonNode>> indices = root.fields();
+        while (indices.hasNext()) {
+            Map.Entry<String, JsonNode> index = indices.next();
+            JsonNode mappings = index.getValue().path("mappings");
+            // 6.x 的 Mapping 多一层类型名
+            JsonNode actual = mappings.has("properties") ? mappings.path("properties")
+                    : (mappings.elements().hasNext() ? mappings.elements().next().path("properties") : mappings);
+
+            List<String> drift = new ArrayList<>();
+            diff("", expected, actual, drift);
+            if (drift.isEmpty()) continue;
+            log.warn("⚠️ [Mapping 漂移] 索引 [{}] 与推导结果存在 {} 处差异{}: {}", index.getKey(), drift.size(),
+                    drift.size() > MAX_DRIFT_LOGS ? " (仅显示前 " + MAX_DRIFT_LOGS + " 处)" : "",
+                    drift.subList(0, Math.min(drift.size(), MAX_DRIFT_LOGS)));
+        }
+    }
+
+    private static void diff(String prefix, JsonNode expected, JsonNode actual, List<String> drift) {
+        expected.fields().forEachRemaining(e -> {
+            String path = prefix + e.getKey();
+            JsonNode a = actual.get(e.getKey());
+            if (a == null) {
+                drift.add(path + ": 索引中缺失");
+                return;
+            }
+            String expectedType = e.getValue().path("type").asText("object");
+            String actualType = a.path("type").asText("object");
+            if (!expectedType.equals(actualType)) {
+                drift.add(path + ": " + actualType + " -> " + expectedType);
+            } else if (e.getValue().has("properties")) {
+                diff(path + ".", e.getValue().get("properties"), a.path("properties"), drift);
+            }
+        });
+        actual.fieldNames().forEachRemaining(name -> {
+            if (!expected.has(name)) drift.add(prefix + name + ": 不在查询结果中 (动态生成)");
+        });
+    }
+}
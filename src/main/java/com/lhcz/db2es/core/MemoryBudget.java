@@ -0,0 +1,58 @@
+package com.lhcz.db2es.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 全局内存预算 (字节)
+ * 所有任务的缓冲数据共享同一个上限，防止多个任务同时积压大行时撑爆堆内存。
+ * 使用 ReentrantLock 而不是 synchronized，避免在虚拟线程上阻塞时占住载体线程。
+ */
+public class MemoryBudget {
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private long used;
+
+    public MemoryBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 申请内存，超出预算时阻塞
+     * 预算为空时总是允许申请，保证单条超大数据也能通过
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        lock.lock();
+        try {
+            while (used > 0 && used + bytes > maxBytes) {
+                released.await(100, TimeUnit.MILLISECONDS);
+            }
+            used += bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(long bytes) {
+        lock.lock();
+        try {
+            used = Math.max(0, used - bytes);
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getUsed() {
+        lock.lock();
+        try {
+            return used;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxBytes() { return maxBytes; }
+}
@@ -0,0 +1,110 @@
+package com.lhcz.db2es.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 吞吐指标采样器
+ * 按固定分辨率读取各任务的累计计数器，计算区间速率写入 ThroughputSeries，并通知订阅者 (WebConsole SSE 推送)。
+ */
+public class MetricsSampler implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(MetricsSampler.class);
+
+    private final List<JdbcSource> sources;
+    private final List<EsSink> sinks;
+    private final long resolutionMs;
+    private final int historyPoints;
+
+    private final Map<String, ThroughputSeries> series = new ConcurrentHashMap<>();
+    private final Map<String, long[]> lastCounters = new HashMap<>();
+    private final List<Consumer<Map<String, Object>>> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean running = true;
+
+    public MetricsSampler(List<JdbcSource> sources, List<EsSink> sinks, long resolutionMs, long historyMs) {
+        this.sources = sources;
+        this.sinks = sinks;
+        this.resolutionMs = resolutionMs;
+        this.historyPoints = (int) Math.max(2, historyMs / resolutionMs);
+    }
+
+    public long getResolutionMs() { return resolutionMs; }
+    public int getHistoryPoints() { return historyPoints; }
+
+    public ThroughputSeries getSeries(String sinkName) { return series.get(sinkName); }
+
+    /**
+     * 全部任务的历史数据
+     */
+    public Map<String, Object> history() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        series.forEach((table, s) -> m.put(table, s.snapshot()));
+        return m;
+    }
+
+    /**
+     * 订阅每次采样得到的最新数据点 (表名 -> 数据点)
+     */
+    public void addListener(Consumer<Map<String, Object>> listener) { listeners.add(listener); }
+    public void removeListener(Consumer<Map<String, Object>> listener) { listeners.remove(listener); }
+
+    @Override
+    public void run() {
+        long lastTime = System.currentTimeMillis();
+        while (running) {
+            try {
+                Thread.sleep(resolutionMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long now = System.currentTimeMillis();
+            try {
+                sample(now, Math.max(1, now - lastTime));
+            } catch (Exception e) {
+                log.warn("指标采样失败: {}", e.toString());
+            }
+            lastTime = now;
+        }
+    }
+
+    private void sample(long now, long elapsedMs) {
+        Map<String, Long> rowsRead = new HashMap<>();
+        for (JdbcSource source : sources) {
+            rowsRead.put(source.getTaskConfig().tableName(), source.getRowsRead());
+        }
+
+        Map<String, Object> points = new LinkedHashMap<>();
+        for (EsSink sink : sinks) {
+            // 按写入目标统计 (多目标任务的读取速率相同)
+            String table = sink.getName();
+            long[] cur = {rowsRead.getOrDefault(sink.getTaskConfig().tableName(), 0L), sink.getDocsIndexed(),
+                    sink.getBulkLatencyNanos(), sink.getBulkCount()};
+            long[] prev = lastCounters.put(table, cur);
+            if (prev == null) continue; // 第一次采样只记录基线
+
+            double seconds = elapsedMs / 1000.0;
+            long bulks = cur[3] - prev[3];
+            float rowsPerSec = (float) (Math.max(0, cur[0] - prev[0]) / seconds);
+            float docsPerSec = (float) (Math.max(0, cur[1] - prev[1]) / seconds);
+            float latencyMs = bulks > 0 ? (float) ((cur[2] - prev[2]) / 1e6 / bulks) : 0f;
+
+            ThroughputSeries s = series.computeIfAbsent(table, k -> new ThroughputSeries(historyPoints));
+            s.add(now, rowsPerSec, docsPerSec, latencyMs, sink.getQueueSize());
+            points.put(table, s.latest());
+        }
+
+        for (Consumer<Map<String, Object>> listener : listeners) {
+            listener.accept(points);
+        }
+    }
+
+    public void stop() { this.running = false; }
+}
@@ -1,20 +1,25 @@
 package com.lhcz.db2es.core;
 
 import com.lhcz.db2es.config.AppConfig;
-import com.lhcz.db2es.model.SyncData;
+import com.lhcz.db2es.util.RateLimiter;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.net.http.HttpClient;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * 核心流水线控制器
@@ -27,26 +32,163 @@ public class Pipeline {
     private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
 
     // 管理器组件
-    private final CheckpointManager checkpointManager = new CheckpointManager();
+    private CheckpointManager checkpointManager;
     private final DeadLetterQueueManager deadLetterQueueManager = new DeadLetterQueueManager(); // 补录管理器
 
-    // 🟢 新增：保存任务引用以便 WebConsole 监控
-    private final List<JdbcSource> sources = new ArrayList<>();
-    private final List<EsSink> sinks = new ArrayList<>();
+    // 🟢 新增：保存任务引用以便 WebConsole 监控 (集群模式下任务会动态增减)
+    private final List<JdbcSource> sources = new CopyOnWriteArrayList<>();
+    private final List<EsSink> sinks = new CopyOnWriteArrayList<>();
+    private final Map<String, RunningTask> runningTasks = new ConcurrentHashMap<>();
+
+    // 🟢 新增：多实例协调器 (未启用集群模式时为 null)
+    private LeaseCoordinator coordinator;
+    private HikariDataSource ds;
+    // 🟢 新增：只读副本路由 (未配置副本时所有读取走主库)
+    private ReplicaRouter replicaRouter;
+    // 🟢 新增：吞吐指标采样器
+    private MetricsSampler metricsSampler;
+    // 🟢 新增：同步延迟监控
+    private LagMonitor lagMonitor;
+    // 🟢 新增：按日期索引的提前创建
+    private IndexPreCreator indexPreCreator;
+    // 🟢 新增：每日统计定时保存
+    private StatsPersister statsPersister;
+    // 🟢 新增：显式 Mapping 初始化
+    private MappingBootstrap mappingBootstrap;
+    // 🟢 新增：所有任务共享的缓冲内存预算 (未配置时为 null)
+    private MemoryBudget memoryBudget;
+    // 🟢 新增：所有任务共享的读取限流器 (未配置时为 null)
+    private RateLimiter rowLimiter;
+    private RateLimiter queryLimiter;
+
+    private record RunningTask(JdbcSource source, List<EsSink> sinks, Future<?> sourceFuture, List<Future<?>> sinkFutures) {}
 
     // 🟢 修复：持有 HttpClient 强引用，防止被 GC 导致 "selector manager closed" 错误
     private HttpClient httpClient;
+    // 🟢 新增：ES 节点池 (所有任务共享)
+    private EsNodePool nodePool;
+    // 🟢 新增：写入其他集群的目标各自的节点池 (表名@目标名 -> 节点池)
+    private final Map<String, EsNodePool> targetNodePools = new ConcurrentHashMap<>();
+    // 🟢 新增：回放模式下的数据源 (替代 JdbcSource)
+    private final List<TraceReplaySource> replaySources = new CopyOnWriteArrayList<>();
 
     public Pipeline(AppConfig config) {
         this.config = config;
     }
 
     public void start() {
+        AppConfig.TraceConfig trace = config.trace();
+        if (trace != null && "replay".equalsIgnoreCase(trace.mode())) {
+            startReplay(trace);
+            return;
+        }
+
         log.info(" 正在初始化数据库连接池 (HikariCP)...");
+        this.ds = createPool(config.db().url(), null);
+
+        // 🟢 只读副本：范围扫描与追赶读取走副本，减轻主库压力
+        List<HikariDataSource> replicas = new ArrayList<>();
+        List<String> replicaUrls = config.db().replicaUrls() != null ? config.db().replicaUrls() : List.of();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            replicas.add(createPool(replicaUrls.get(i), "db2es-replica-" + (i + 1)));
+        }
+        long lagCheckMs = config.db().replicaLagCheckMs() != null ? config.db().replicaLagCheckMs() : 5000L;
+        this.replicaRouter = new ReplicaRouter(ds, replicas, sources, lagCheckMs);
+        if (replicaRouter.hasReplicas()) {
+            log.info("只读副本: {} 个，延迟采样间隔 {}ms", replicas.size(), lagCheckMs);
+            executor.submit(replicaRouter);
+        }
+        this.mappingBootstrap = new MappingBootstrap(ds);
+
+        // 🟢 初始化共享的 HttpClient (避免每个任务创建独立客户端导致 selector manager closed)
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        this.nodePool = createNodePool(config.es());
+
+        AppConfig.ChannelConfig cc = config.channel();
+        if (cc != null && cc.globalMaxBytes() != null) {
+            this.memoryBudget = new MemoryBudget(cc.globalMaxBytes());
+            log.info("全局缓冲内存预算: {} MB", cc.globalMaxBytes() / 1024 / 1024);
+        }
+
+        AppConfig.ReadConfig rc = config.read();
+        if (rc != null && rc.maxRowsPerSecond() != null) {
+            this.rowLimiter = new RateLimiter(rc.maxRowsPerSecond());
+            log.info("全局读取限流: {} 行/秒", rc.maxRowsPerSecond());
+        }
+        if (rc != null && rc.maxQueriesPerSecond() != null) {
+            this.queryLimiter = new RateLimiter(rc.maxQueriesPerSecond());
+            log.info("全局查询限流: {} 次/秒", rc.maxQueriesPerSecond());
+        }
+
+        AppConfig.ClusterConfig cluster = config.cluster();
+        if (cluster != null && Boolean.TRUE.equals(cluster.enabled())) {
+            // 🟢 集群模式：由租约决定本实例运行哪些任务，进度保存在共享租约表中
+            List<String> taskNames = config.tasks().stream().map(AppConfig.TaskConfig::tableName).toList();
+            this.coordinator = new LeaseCoordinator(ds, cluster, taskNames, new LeaseCoordinator.Listener() {
+                @Override
+                public void onAcquired(String task) { startTask(findTask(task)); }
+
+                @Override
+                public void onRevoked(String task) { stopTask(task); }
+            });
+            this.checkpointManager = coordinator.getCheckpointManager();
+            try {
+                coordinator.init();
+            } catch (Exception e) {
+                throw new IllegalStateException("初始化租约表失败", e);
+            }
+            executor.submit(coordinator);
+        } else {
+            this.checkpointManager = new CheckpointManager();
+            for (AppConfig.TaskConfig task : config.tasks()) {
+                startTask(task);
+            }
+        }
+
+        // 🟢 吞吐曲线采样 (固定分辨率，内存占用恒定)
+        AppConfig.WebConfig web = config.web();
+        long resolutionMs = (web != null && web.metricsResolutionMs() != null) ? web.metricsResolutionMs() : 5000L;
+        long historyMinutes = (web != null && web.metricsHistoryMinutes() != null) ? web.metricsHistoryMinutes() : 180L;
+        this.metricsSampler = new MetricsSampler(sources, sinks, resolutionMs, historyMinutes * 60_000L);
+        executor.submit(metricsSampler);
+
+        // 🟢 同步延迟监控
+        this.lagMonitor = new LagMonitor(ds, sources, config.lag());
+        executor.submit(lagMonitor);
+
+        // 🟢 提前创建当前及下一周期的按日期索引
+        this.indexPreCreator = new IndexPreCreator(sinks);
+        executor.submit(indexPreCreator);
+        startStatsPersister();
+
+        // 🟢 启动 Web 控制台 (如果配置了端口)
+        if (web != null && web.port() != null) {
+            WebConsole webConsole = new WebConsole(web.port(), sources, sinks, nodePool, metricsSampler, lagMonitor);
+            webConsole.start();
+        } else {
+            log.info("ℹ️ Web 控制台未启用。如需监控任务，请在配置文件中添加 web.port 配置。");
+        }
+
+        // 🟢 新增：进程退出时优雅停止，写完缓冲区并持久化内容指纹库
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "db2es-shutdown"));
+    }
+
+    /**
+     * 创建连接池 (主库与副本使用相同的连接池参数)
+     * @param poolName 连接池名称，为 null 时使用 HikariCP 默认名称
+     */
+    private HikariDataSource createPool(String url, String poolName) {
         HikariConfig hikariConfig = new HikariConfig();
-        hikariConfig.setJdbcUrl(config.db().url());
+        hikariConfig.setJdbcUrl(url);
         hikariConfig.setUsername(config.db().user());
         hikariConfig.setPassword(config.db().password());
+        if (poolName != null) {
+            hikariConfig.setPoolName(poolName);
+            hikariConfig.setReadOnly(true);
+        }
 
         // 🟢 核心修复：应用稳健的连接池参数
         long maxLifetime = (config.db().maxLifetimeMs() != null) ? config.db().maxLifetimeMs() : 600000L; // 默认10分钟
@@ -54,7 +196,8 @@ public class Pipeline {
         int minIdle = (config.db().minIdle() != null) ? config.db().minIdle() : 2;
         int maxPoolSize = (config.db().maxPoolSize() != null) ? config.db().maxPoolSize() : 10;
 
-        log.info("连接池配置: MaxLifetime={}ms, IdleTimeout={}ms, PoolSize={}", maxLifetime, idleTimeout, maxPoolSize);
+        log.info("连接池配置 [{}]: MaxLifetime={}ms, IdleTimeout={}ms, PoolSize={}",
+                poolName != null ? poolName : "主库", maxLifetime, idleTimeout, maxPoolSize);
 
         hikariConfig.setMaxLifetime(maxLifetime);
         hikariConfig.setIdleTimeout(idleTimeout);
@@ -65,36 +208,242 @@ public class Pipeline {
         hikariConfig.addDataSourceProperty("socketTimeout", "30000");
         hikariConfig.addDataSourceProperty("tcpKeepAlive", "true");
 
-        HikariDataSource ds = new HikariDataSource(hikariConfig);
+        return new HikariDataSource(hikariConfig);
+    }
 
-        // 🟢 初始化共享的 HttpClient (避免每个任务创建独立客户端导致 selector manager closed)
+    private AppConfig.TaskConfig findTask(String tableName) {
+        return config.tasks().stream()
+                .filter(t -> t.tableName().equals(tableName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("未知任务: " + tableName));
+    }
+
+    private synchronized void startTask(AppConfig.TaskConfig task) {
+        if (runningTasks.containsKey(task.tableName())) return;
+
+        // 🟢 每个写入目标一个独立的通道与 EsSink，共享同一个 JdbcSource
+        List<EsSink> taskSinks = new ArrayList<>();
+        List<JdbcSource.Output> outputs = new ArrayList<>();
+        createSinks(task, taskSinks, outputs);
+
+        AppConfig.ChannelConfig cc = config.channel();
+        int capacity = (cc != null && cc.capacity() != null) ? cc.capacity() : 8192;
+        long maxBytes = (cc != null && cc.maxBytesPerTask() != null) ? cc.maxBytesPerTask() : 64L * 1024 * 1024;
+
+        ReadController readController = new ReadController(task.tableName(), replicaRouter, config.read(), rowLimiter, queryLimiter);
+
+        // 🟢 窗口预聚合：汇总文档写入独立的 EsSink (不保存进度)
+        RollupStage rollup = null;
+        if (task.rollup() != null) {
+            BatchChannel rollupChannel = new BatchChannel(capacity, maxBytes, memoryBudget);
+            // 汇总文档会被重算覆盖，不能使用只追加写入
+            AppConfig.TargetConfig rollupTarget = new AppConfig.TargetConfig("rollup", task.rollup().esIndex(), task.esType(), null,
+                    new AppConfig.AppendOnlyConfig(false, null, null));
+            taskSinks.add(new EsSink(rollupChannel, config.es(), task, rollupTarget, checkpointManager, deadLetterQueueManager, nodePool));
+            rollup = new RollupStage(task, rollupChannel, readController);
+        }
+        boolean smile = "smile".equalsIgnoreCase(config.es().format());
+        JdbcSource source = new JdbcSource(ds, task, outputs, checkpointManager, readController, smile, rollup,
+                createRecorder(task, smile));
+
+        log.info("启动任务线程: 表[{}] -> 索引[{}]", task.tableName(),
+                taskSinks.stream().map(EsSink::getEsIndex).toList());
+        Future<?> sourceFuture = executor.submit(source);
+        List<Future<?>> sinkFutures = new ArrayList<>();
+        for (EsSink sink : taskSinks) sinkFutures.add(executor.submit(sink));
+        runningTasks.put(task.tableName(), new RunningTask(source, taskSinks, sourceFuture, sinkFutures));
+
+        // 🟢 收集引用
+        sources.add(source);
+        sinks.addAll(taskSinks);
+    }
+
+    /**
+     * 为任务的每个写入目标创建有界通道 (按槽位数和字节数背压) 与 EsSink
+     */
+    private void createSinks(AppConfig.TaskConfig task, List<EsSink> taskSinks, List<JdbcSource.Output> outputs) {
+        AppConfig.ChannelConfig cc = config.channel();
+        int capacity = (cc != null && cc.capacity() != null) ? cc.capacity() : 8192;
+        long maxBytes = (cc != null && cc.maxBytesPerTask() != null) ? cc.maxBytesPerTask() : 64L * 1024 * 1024;
+        // 🟢 回溯修复数据使用独立车道，增量数据优先
+        int repairCapacity = (cc != null && cc.repairCapacity() != null) ? cc.repairCapacity() : Math.max(2, capacity / 4);
+        double repairWeight = (cc != null && cc.repairWeight() != null) ? cc.repairWeight() : 0;
+
+        for (AppConfig.TargetConfig target : resolveTargets(task)) {
+            BatchChannel channel = new BatchChannel(capacity, repairCapacity, maxBytes, memoryBudget, repairWeight,
+                    (cc != null && cc.repairMaxRowsPerSecond() != null) ? new RateLimiter(cc.repairMaxRowsPerSecond()) : null);
+            AppConfig.EsConfig esConfig = target.es() != null ? target.es().mergedOver(config.es()) : config.es();
+            if (esConfig.batchSize() <= 0 || esConfig.flushIntervalMs() <= 0) {
+                throw new IllegalStateException("任务 [" + task.tableName() + "] 写入目标 [" + target.name()
+                        + "] 的 batchSize / flushIntervalMs 必须大于 0");
+            }
+            EsNodePool pool = target.es() != null
+                    ? targetNodePools.computeIfAbsent(task.tableName() + "@" + target.name(), k -> createNodePool(esConfig))
+                    : nodePool;
+            EsSink sink = new EsSink(channel, esConfig, task, target, checkpointManager, deadLetterQueueManager, pool);
+            // 在第一次写入 (及提前创建索引) 之前下发索引模板
+            if (mappingBootstrap != null) mappingBootstrap.apply(task, sink);
+            taskSinks.add(sink);
+            outputs.add(new JdbcSource.Output(sink.getName(), channel, !sink.isAutoId()));
+        }
+    }
+
+    /**
+     * 创建 ES 节点池 (回放且配置了模拟 ES 时返回 StubEsNodePool)
+     */
+    private EsNodePool createNodePool(AppConfig.EsConfig esConfig) {
+        AppConfig.TraceConfig trace = config.trace();
+        if (trace != null && "replay".equalsIgnoreCase(trace.mode()) && Boolean.TRUE.equals(trace.stubSink())) {
+            return new StubEsNodePool(esConfig, trace.stubLatencyMs() != null ? trace.stubLatencyMs() : 0);
+        }
+        EsNodePool pool = new EsNodePool(esConfig, httpClient);
+        executor.submit(pool::runHealthCheck);
+        return pool;
+    }
+
+    /**
+     * 采集模式下为任务创建数据页采集器，失败时只记录日志
+     */
+    private TraceRecorder createRecorder(AppConfig.TaskConfig task, boolean smile) {
+        AppConfig.TraceConfig trace = config.trace();
+        if (trace == null || !"capture".equalsIgnoreCase(trace.mode())) return null;
+        try {
+            return new TraceRecorder(task, trace, smile);
+        } catch (Exception e) {
+            log.warn("⚠️ 任务 [{}] 创建轨迹文件失败，不采集: {}", task.tableName(), e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * 回放模式：不连接数据库，从轨迹文件读取数据写入 ES (或模拟 ES)
+     * 进度不读写本地文件，不启动租约、延迟监控与 Web 控制台
+     */
+    private void startReplay(AppConfig.TraceConfig trace) {
+        this.checkpointManager = new CheckpointManager(false) {
+            @Override
+            protected void setProperties(String task, Map<String, String> values) {}
+        };
         this.httpClient = HttpClient.newBuilder()
                 .version(HttpClient.Version.HTTP_2)
                 .connectTimeout(Duration.ofSeconds(10))
                 .build();
+        this.nodePool = createNodePool(config.es());
 
+        AppConfig.ChannelConfig cc = config.channel();
+        if (cc != null && cc.globalMaxBytes() != null) {
+            this.memoryBudget = new MemoryBudget(cc.globalMaxBytes());
+        }
+
+        boolean smile = "smile".equalsIgnoreCase(config.es().format());
+        boolean recordedSpeed = !"max".equalsIgnoreCase(trace.speed());
         for (AppConfig.TaskConfig task : config.tasks()) {
-            // 有界队列实现背压
-            BlockingQueue<SyncData> channel = new LinkedBlockingQueue<>(5000);
+            File file = TraceRecorder.latest(trace, task.tableName());
+            if (file == null) {
+                log.warn("⚠️ 任务 [{}] 在 {} 中没有轨迹文件，跳过", task.tableName(), TraceRecorder.dir(trace));
+                continue;
+            }
+            List<EsSink> taskSinks = new ArrayList<>();
+            List<JdbcSource.Output> outputs = new ArrayList<>();
+            createSinks(task, taskSinks, outputs);
+            TraceReplaySource replay = new TraceReplaySource(task.tableName(), file, outputs, smile, recordedSpeed);
+            replaySources.add(replay);
+            executor.submit(replay);
+            for (EsSink sink : taskSinks) executor.submit(sink);
+            sinks.addAll(taskSinks);
+        }
+
+        this.indexPreCreator = new IndexPreCreator(sinks);
+        executor.submit(indexPreCreator);
+        startStatsPersister();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "db2es-shutdown"));
+    }
 
-            JdbcSource source = new JdbcSource(ds, task, channel, checkpointManager);
-            EsSink sink = new EsSink(channel, config.es(), task, checkpointManager, deadLetterQueueManager, this.httpClient);
+    private void startStatsPersister() {
+        Integer interval = config.es().statsPersistIntervalMs();
+        this.statsPersister = new StatsPersister(sinks, interval != null ? interval : 5000L);
+        executor.submit(statsPersister);
+    }
+
+    /**
+     * 未配置 targets 时使用任务自身的 esIndex/esType 作为唯一目标 (进度键仍为表名)
+     */
+    private static List<AppConfig.TargetConfig> resolveTargets(AppConfig.TaskConfig task) {
+        if (task.targets() == null || task.targets().isEmpty()) {
+            return List.of(new AppConfig.TargetConfig(null, task.esIndex(), task.esType(), null, null));
+        }
+        for (AppConfig.TargetConfig target : task.targets()) {
+            if (target.name() == null || target.name().isBlank()) {
+                throw new IllegalArgumentException("任务 [" + task.tableName() + "] 的写入目标必须配置 name");
+            }
+        }
+        if (task.targets().stream().map(AppConfig.TargetConfig::name).distinct().count() != task.targets().size()) {
+            throw new IllegalArgumentException("任务 [" + task.tableName() + "] 的写入目标 name 重复");
+        }
+        return task.targets();
+    }
 
-            // 🟢 收集引用
-            sources.add(source);
-            sinks.add(sink);
+    /**
+     * 停止单个任务：先停生产者，待其退出后再停消费者 (消费者会写完缓冲区并保存进度)
+     * 不持有 Pipeline 锁等待线程退出，多个任务可并行停止，也不阻塞 startTask
+     */
+    private void stopTask(String tableName) {
+        RunningTask rt = runningTasks.remove(tableName);
+        if (rt == null) return;
 
-            log.info("启动任务线程: 表[{}] -> 索引[{}]", task.tableName(), task.esIndex());
-            executor.submit(source);
-            executor.submit(sink);
+        log.info("停止任务线程: 表[{}]", tableName);
+        rt.source().stop();
+        awaitOrCancel(rt.sourceFuture(), tableName);
+        rt.sinks().forEach(EsSink::stop);
+        rt.sinkFutures().forEach(f -> awaitOrCancel(f, tableName));
+
+        sources.remove(rt.source());
+        sinks.removeAll(rt.sinks());
+    }
+
+    private void awaitOrCancel(Future<?> future, String tableName) {
+        try {
+            future.get(15, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            log.warn("⚠️ 任务 [{}] 未能在 15 秒内结束，强制中断", tableName);
+            future.cancel(true);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("任务 [{}] 线程异常结束: {}", tableName, e.toString());
         }
+    }
 
-        // 🟢 启动 Web 控制台 (如果配置了端口)
-        if (config.web() != null && config.web().port() != null) {
-            WebConsole webConsole = new WebConsole(config.web().port(), sources, sinks);
-            webConsole.start();
-        } else {
-            log.info("ℹ️ Web 控制台未启用。如需监控任务，请在配置文件中添加 web.port 配置。");
+    /**
+     * 停止所有任务：先停生产者，再停消费者，最多等待 15 秒
+     */
+    public void stop() {
+        log.info("正在停止所有任务...");
+        if (coordinator != null) {
+            // 主动释放租约，其他实例可立即接管
+            coordinator.shutdown();
+        }
+        sources.forEach(JdbcSource::stop);
+        replaySources.forEach(TraceReplaySource::stop);
+        sinks.forEach(EsSink::stop);
+        nodePool.stop();
+        targetNodePools.values().forEach(EsNodePool::stop);
+        // 回放模式下不启动以下组件
+        if (metricsSampler != null) metricsSampler.stop();
+        if (lagMonitor != null) lagMonitor.stop();
+        if (replicaRouter != null) replicaRouter.stop();
+        indexPreCreator.stop();
+        statsPersister.stop();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(15, TimeUnit.SECONDS)) {
+                log.warn("⚠️ 部分任务未能在 15 秒内结束，强制退出");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -0,0 +1,161 @@
+package com.lhcz.db2es.core;
+
+import com.lhcz.db2es.config.AppConfig;
+import com.lhcz.db2es.util.RateLimiter;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 数据库读取控制器 (每个任务一个，保护生产库)
+ * 1. 自适应页大小：查询耗时低于目标一半时逐步放大页 (x1.25)，超过目标时减半 (AIMD)。
+ * 2. 拥塞退避：查询超时或连接池获取连接等待过久时，除缩小页外还会暂停一段时间。
+ * 3. 全局限流：所有任务共享的 每秒行数 / 每秒查询数 上限。
+ * 4. 读库选择：配置了只读副本时，范围扫描走副本，主进度查询在副本延迟允许时走副本 (见 ReplicaRouter)。
+ * 空闲时以最大页全速追赶，数据库繁忙时自动让出资源。
+ */
+public class ReadController {
+    private static final Logger log = LoggerFactory.getLogger(ReadController.class);
+    private static final long MAX_BACKOFF_MS = 5000L;
+    // 上一页未读满 (已追到末尾) 时每次查询至少预扣的行数
+    private static final int PROBE_ROWS = 100;
+
+    private final String tableName;
+    private final ReplicaRouter replicaRouter;
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final long targetLatencyMs;
+    private final long maxConnectionWaitMs;
+    private final int fetchSize;
+    private final RateLimiter rowLimiter;
+    private final RateLimiter queryLimiter;
+
+    private volatile int pageSize;
+    private volatile long lastQueryMs;
+    // 最近一次主进度查询使用的连接池 (用于判断连接池拥塞)
+    private volatile HikariDataSource tailDs;
+    // 上一次主进度 / 回溯查询读取的行数，-1 表示整页 (追赶中)
+    private int lastTailRows = -1;
+    private int lastScanRows = -1;
+
+    /**
+     * @param rowLimiter   全局行数限流，可为 null
+     * @param queryLimiter 全局查询数限流，可为 null
+     */
+    public ReadController(String tableName, ReplicaRouter replicaRouter, AppConfig.ReadConfig config,
+                          RateLimiter rowLimiter, RateLimiter queryLimiter) {
+        this.tableName = tableName;
+        this.replicaRouter = replicaRouter;
+        this.tailDs = replicaRouter.getPrimary();
+        boolean hasConfig = config != null;
+        this.minPageSize = (hasConfig && config.minPageSize() != null) ? config.minPageSize() : 500;
+        this.maxPageSize = (hasConfig && config.maxPageSize() != null) ? config.maxPageSize() : 20000;
+        this.pageSize = Math.max(minPageSize, Math.min(maxPageSize,
+                (hasConfig && config.pageSize() != null) ? config.pageSize() : 5000));
+        this.targetLatencyMs = (hasConfig && config.targetQueryLatencyMs() != null) ? config.targetQueryLatencyMs() : 500L;
+        this.maxConnectionWaitMs = (hasConfig && config.maxConnectionWaitMs() != null) ? config.maxConnectionWaitMs() : 200L;
+        this.fetchSize = (hasConfig && config.fetchSize() != null && config.fetchSize() > 0) ? config.fetchSize() : 500;
+        this.rowLimiter = rowLimiter;
+        this.queryLimiter = queryLimiter;
+    }
+
+    public int getPageSize() { return pageSize; }
+    public long getLastQueryMs() { return lastQueryMs; }
+    public int getFetchSize() { return fetchSize; }
+
+    /**
+     * 主进度查询使用的数据源：副本延迟超过游标距最新数据的距离时回退到主库
+     */
+    public HikariDataSource tailDataSource(long cursor) {
+        HikariDataSource chosen = replicaRouter.forTail(tableName, cursor);
+        if (chosen != tailDs) {
+            log.info("🔀 [{}] 主进度查询切换到 {} (当前进度 ID: {})", tableName, chosen.getPoolName(), cursor);
+            tailDs = chosen;
+        }
+        return chosen;
+    }
+
+    /**
+     * 范围扫描 (回溯校验、汇总重算) 使用的数据源：优先使用已包含 upToId 之前全部数据的副本
+     */
+    public HikariDataSource scanDataSource(long upToId) {
+        return replicaRouter.forRange(tableName, upToId);
+    }
+
+    /**
+     * 查询前调用 (受全局 QPS 限制)
+     */
+    public void beforeQuery() throws InterruptedException {
+        if (queryLimiter != null) queryLimiter.acquire(1);
+    }
+
+    /**
+     * 本次查询的 LIMIT：启用行数限流时不超过每秒配额，单页不会超出限流速率
+     */
+    public int getPageLimit() {
+        if (rowLimiter == null) return pageSize;
+        return (int) Math.max(1, Math.min(pageSize, rowLimiter.getPermitsPerSecond()));
+    }
+
+    /**
+     * 查询前预扣全局行数配额 (超出时阻塞)，读取前就完成限速
+     * 上一页读满 (追赶中) 时预扣整页；上一页未读满时只预扣上一页行数 (至少 PROBE_ROWS)，
+     * 避免多个空闲任务每次轮询都预扣整页、互相拖慢
+     * @param rewind 是否为回溯查询 (与主进度查询分别按各自上一页估算)
+     * @return 预扣的行数，查询后传给 settleRows
+     */
+    public int reserveRows(int limit, boolean rewind) throws InterruptedException {
+        if (rowLimiter == null || limit <= 0) return 0;
+        int last = rewind ? lastScanRows : lastTailRows;
+        int reserved = last < 0 ? limit : Math.min(limit, Math.max(PROBE_ROWS, last));
+        rowLimiter.acquire(reserved);
+        return reserved;
+    }
+
+    /**
+     * 查询后按实际行数结算：归还未用完的配额，超出预扣的部分补扣 (超出时阻塞)
+     */
+    public void settleRows(int reserved, int rows, int limit, boolean rewind) throws InterruptedException {
+        int last = rows >= limit ? -1 : rows;
+        if (rewind) lastScanRows = last; else lastTailRows = last;
+        if (rowLimiter == null) return;
+        if (rows < reserved) rowLimiter.refund(reserved - rows);
+        else if (rows > reserved) rowLimiter.acquire(rows - reserved);
+    }
+
+    /**
+     * 读取后按行数扣减配额 (超出时阻塞)，用于无法预知结果行数的查询 (如汇总重算的 GROUP BY)
+     */
+    public void acquireRows(int rows) throws InterruptedException {
+        if (rowLimiter != null && rows > 0) rowLimiter.acquire(rows);
+    }
+
+    /**
+     * 主进度查询完成后调用：调整页大小，必要时退避
+     * @param queryMs  executeQuery 耗时 (不含放入通道的背压等待)
+     * @param connWaitMs 获取连接耗时
+     * @param rows     本页行数
+     * @param limit    本页请求的行数
+     */
+    public void afterQuery(long queryMs, long connWaitMs, int rows, int limit) throws InterruptedException {
+        this.lastQueryMs = queryMs;
+
+        HikariPoolMXBean pool = tailDs.getHikariPoolMXBean();
+        boolean poolCongested = connWaitMs > maxConnectionWaitMs
+                || (pool != null && pool.getThreadsAwaitingConnection() > 0);
+
+        if (queryMs > targetLatencyMs || poolCongested) {
+            int old = pageSize;
+            pageSize = Math.max(minPageSize, old / 2);
+            // 超出越多退避越久，给数据库喘息时间
+            long backoff = Math.min(MAX_BACKOFF_MS, Math.max(queryMs - targetLatencyMs, connWaitMs));
+            log.info("🐢 [{}] 数据库繁忙 (查询 {}ms, 等待连接 {}ms)，页大小 {} -> {}，暂停 {}ms",
+                    tableName, queryMs, connWaitMs, old, pageSize, backoff);
+            if (backoff > 0) Thread.sleep(backoff);
+        } else if (rows >= limit && queryMs < targetLatencyMs / 2) {
+            // 只有整页返回时才放大 (追到末尾时的短页不代表真实耗时)
+            pageSize = Math.min(maxPageSize, Math.max(pageSize + 1, (int) (pageSize * 1.25)));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.lhcz.db2es.core;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 只读副本路由
+ * 定期在主库与每个副本上查询各任务表的 MAX(idColumn)，在本地得到副本延迟 (落后的 ID 数)。
+ * 范围扫描 (回溯校验、汇总重算) 只发往已包含目标范围的副本；主进度查询只有在副本延迟不超过游标距最新数据的距离时才走副本，
+ * 否则回退到主库，保证不会因为副本延迟而读不到最新数据。
+ * 采样到的副本 MAX(id) 只会比实际值小，因此据此做出的判断总是安全的。
+ */
+public class ReplicaRouter implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRouter.class);
+
+    private final HikariDataSource primary;
+    private final List<HikariDataSource> replicas;
+    private final List<JdbcSource> sources;
+    private final long intervalMs;
+
+    // 表名 -> [主库 MAX(id), 副本1 MAX(id), 副本2 ...]，副本不可用时为 -1
+    private final Map<String, long[]> maxIds = new ConcurrentHashMap<>();
+    private final AtomicInteger roundRobin = new AtomicInteger();
+    private volatile boolean running = true;
+
+    public ReplicaRouter(HikariDataSource primary, List<HikariDataSource> replicas, List<JdbcSource> sources, long intervalMs) {
+        this.primary = primary;
+        this.replicas = replicas;
+        this.sources = sources;
+        this.intervalMs = intervalMs;
+    }
+
+    public boolean hasReplicas() { return !replicas.isEmpty(); }
+
+    /**
+     * 主进度查询使用的数据源
+     * @param cursor 当前主进度
+     */
+    public HikariDataSource forTail(String table, long cursor) {
+        long[] ids = maxIds.get(table);
+        if (ids == null) return primary;
+        long distance = ids[0] - cursor;
+        int start = roundRobin.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            int r = Math.floorMod(start + i, replicas.size());
+            long replicaMax = ids[r + 1];
+            if (replicaMax < 0) continue;
+            long lag = ids[0] - replicaMax;
+            // 副本延迟小于游标距最新数据的距离，说明副本上游标之后还有数据
+            if (lag < distance) return replicas.get(r);
+        }
+        return primary;
+    }
+
+    /**
+     * 范围扫描使用的数据源：副本必须已包含 upToId 之前的全部数据
+     */
+    public HikariDataSource forRange(String table, long upToId) {
+        long[] ids = maxIds.get(table);
+        if (ids == null) return primary;
+        int start = roundRobin.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            int r = Math.floorMod(start + i, replicas.size());
+            if (ids[r + 1] >= upToId) return replicas.get(r);
+        }
+        return primary;
+    }
+
+    public HikariDataSource getPrimary() { return primary; }
+
+    @Override
+    public void run() {
+        while (running) {
+            for (JdbcSource source : sources) {
+                sample(source.getTaskConfig().tableName(), source.getTaskConfig().idColumn());
+            }
+            try {
+                Thread.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void sample(String table, String idColumn) {
+        String sql = String.format("SELECT MAX(%s) FROM %s", idColumn, table);
+        long[] ids = new long[replicas.size() + 1];
+        // 先采样副本再采样主库，避免两次查询之间的新数据被算作副本延迟的反向误差
+        for (int r = 0; r < replicas.size(); r++) {
+            ids[r + 1] = maxId(replicas.get(r), sql, table);
+        }
+        ids[0] = maxId(primary, sql, table);
+        if (ids[0] < 0) return; // 主库采样失败时保留上次结果
+        maxIds.put(table, ids);
+    }
+
+    private long maxId(HikariDataSource ds, String sql, String table) {
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (Exception e) {
+            log.warn("⚠️ 副本延迟采样失败 [{}] {}: {}", ds.getPoolName(), table, e.getMessage());
+            return -1;
+        }
+    }
+
+    public void stop() { this.running = false; }
+}
@@ -0,0 +1,332 @@
+package com.lhcz.db2es.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.lhcz.db2es.config.AppConfig;
+import com.lhcz.db2es.model.SyncData;
+import com.lhcz.db2es.util.JsonUtil;
+import com.lhcz.db2es.util.LongLongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * 窗口预聚合 (运行在 JdbcSource 线程中，非线程安全)
+ * 按滚动时间窗口 + 分组列增量统计 count/min/max/sum，窗口关闭时生成汇总文档放入汇总索引的通道 (按确定的 _id 覆盖写入)。
+ * 聚合状态存放在原始类型数组中，分组键的 64 位哈希通过 LongLongHashMap 映射到数组下标。
+ *
+ * 迟到数据:
+ * 1. 实时流中 ID 出现跳号时记录空洞；回溯校验读到的行若落在空洞内，说明实时流漏读了它：窗口未关闭则直接累加，已关闭则标记重算。
+ * 2. 事件时间落在已关闭窗口的实时数据同样标记重算。
+ * 3. 重启时仍在宽限期内的窗口 (可能有多个) 只统计到部分数据，关闭时也改为重算。
+ * 重算通过对该窗口执行一次 GROUP BY 查询得到完整结果 (需要 timeColumn 上有索引)。
+ */
+public class RollupStage {
+    private static final Logger log = LoggerFactory.getLogger(RollupStage.class);
+    private static final DateTimeFormatter FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
+    // 空洞记录上限，超过后丢弃最旧的 (其中的迟到数据不再修正)
+    private static final int MAX_GAPS = 100_000;
+
+    private final AppConfig.TaskConfig task;
+    private final BatchChannel channel;
+    private final ReadController readController;
+    private final String timeColumn;
+    private final String[] keyColumns;
+    private final String[] metricColumns;
+    private final long windowMs;
+    private final long graceMs;
+
+    // 未关闭的窗口 (窗口起点 -> 聚合状态)
+    private final TreeMap<Long, Window> windows = new TreeMap<>();
+    // 需要通过 SQL 重算的已关闭窗口
+    private final TreeSet<Long> dirty = new TreeSet<>();
+    // 实时流中的 ID 空洞 (起点 -> 终点，闭区间)
+    private final TreeMap<Long, Long> gaps = new TreeMap<>();
+
+    private long lastLiveId = -1;
+    private long watermark = Long.MIN_VALUE;  // 实时数据中最大的事件时间
+    private long closedUpTo = Long.MIN_VALUE; // 早于此时间的窗口均已关闭
+    // 重启后第一行的事件时间 + 宽限期，起点不晚于此的窗口可能缺少重启前的数据
+    private long restartHorizon = Long.MIN_VALUE;
+    private long emitted;
+
+    /**
+     * 单个窗口的聚合状态，每个分组占用一个下标
+     */
+    private final class Window {
+        final long start;
+        final LongLongHashMap index = new LongLongHashMap(256, false);
+        JsonNode[][] keys = new JsonNode[64][];
+        long[] counts = new long[64];
+        double[] mins = new double[64 * metricColumns.length];
+        double[] maxs = new double[64 * metricColumns.length];
+        double[] sums = new double[64 * metricColumns.length];
+        int size;
+        boolean recompute;
+        long lastUpdate;
+
+        Window(long start) { this.start = start; }
+
+        int slot(long keyHash, JsonNode[] keyValues) {
+            long idx = index.get(keyHash, -1);
+            if (idx >= 0) return (int) idx;
+            if (size == counts.length) grow();
+            int s = size++;
+            keys[s] = keyValues;
+            int m = metricColumns.length;
+            Arrays.fill(mins, s * m, s * m + m, Double.POSITIVE_INFINITY);
+            Arrays.fill(maxs, s * m, s * m + m, Double.NEGATIVE_INFINITY);
+            index.put(keyHash, s);
+            return s;
+        }
+
+        private void grow() {
+            int n = counts.length * 2;
+            keys = Arrays.copyOf(keys, n);
+            counts = Arrays.copyOf(counts, n);
+            mins = Arrays.copyOf(mins, n * metricColumns.length);
+            maxs = Arrays.copyOf(maxs, n * metricColumns.length);
+            sums = Arrays.copyOf(sums, n * metricColumns.length);
+        }
+    }
+
+    public RollupStage(AppConfig.TaskConfig task, BatchChannel channel, ReadController readController) {
+        AppConfig.RollupConfig config = task.rollup();
+        this.task = task;
+        this.channel = channel;
+        this.readController = readController;
+        this.timeColumn = config.timeColumn();
+        this.keyColumns = splitColumns(config.keyColumns());
+        this.metricColumns = splitColumns(config.metricColumns());
+        this.windowMs = (config.windowMinutes() != null ? config.windowMinutes() : 60) * 60_000L;
+        this.graceMs = (config.graceSeconds() != null ? config.graceSeconds() : 300) * 1000L;
+        if (timeColumn == null || timeColumn.isBlank() || keyColumns.length == 0) {
+            throw new IllegalArgumentException("任务 [" + task.tableName() + "] rollup 必须配置 timeColumn 与 keyColumns");
+        }
+    }
+
+    private static String[] splitColumns(String columns) {
+        if (columns == null || columns.isBlank()) return new String[0];
+        return Arrays.stream(columns.split(",")).map(String::trim).filter(c -> !c.isEmpty()).toArray(String[]::new);
+    }
+
+    public long getEmitted() { return emitted; }
+
+    /**
+     * 处理一行数据 (维表关联之后、编码之前)
+     */
+    public void onRow(long id, ObjectNode doc, boolean isRepair) {
+        if (!isRepair) {
+            if (lastLiveId >= 0 && id > lastLiveId + 1) addGap(lastLiveId + 1, id - 1);
+            lastLiveId = Math.max(lastLiveId, id);
+        } else if (!takeFromGap(id)) {
+            return; // 实时流已统计过该行
+        }
+
+        Long time = JsonUtil.epochMillis(doc.get(timeColumn));
+        if (time == null) return;
+        long windowStart = Math.floorDiv(time, windowMs) * windowMs;
+        if (!isRepair) watermark = Math.max(watermark, time);
+        if (restartHorizon == Long.MIN_VALUE) restartHorizon = time + graceMs;
+
+        Window w = windows.get(windowStart);
+        if (w == null) {
+            if (windowStart < closedUpTo) {
+                // 窗口已关闭：迟到数据，稍后整体重算
+                dirty.add(windowStart);
+                return;
+            }
+            w = new Window(windowStart);
+            // 重启时仍在宽限期内的窗口缺少重启前的数据 (之后才出现的较早窗口同样如此)
+            w.recompute = windowStart <= restartHorizon;
+            windows.put(windowStart, w);
+        }
+
+        JsonNode[] keyValues = new JsonNode[keyColumns.length];
+        long keyHash = 0;
+        for (int i = 0; i < keyColumns.length; i++) {
+            keyValues[i] = doc.get(keyColumns[i]);
+            keyHash = keyHash * 31 + ContentHashStore.hash(String.valueOf(JsonUtil.rawValue(keyValues[i])));
+        }
+        int s = w.slot(keyHash, keyValues);
+        w.counts[s]++;
+        int m = metricColumns.length;
+        for (int i = 0; i < m; i++) {
+            Object v = JsonUtil.rawValue(doc.get(metricColumns[i]));
+            if (!(v instanceof Number n)) continue;
+            double d = n.doubleValue();
+            int off = s * m + i;
+            if (d < w.mins[off]) w.mins[off] = d;
+            if (d > w.maxs[off]) w.maxs[off] = d;
+            w.sums[off] += d;
+        }
+        w.lastUpdate = System.currentTimeMillis();
+    }
+
+    /**
+     * 关闭到期的窗口并重算迟到窗口 (每次查询后调用)
+     * 窗口在事件时间水位超过 结束+grace 时关闭；数据停止流入时，墙上时钟超过 结束+grace 且窗口 grace 时间内无更新也会关闭。
+     */
+    public void tick(long now) throws Exception {
+        while (!windows.isEmpty()) {
+            Window w = windows.firstEntry().getValue();
+            long closeAt = w.start + windowMs + graceMs;
+            boolean due = closeAt <= watermark || (closeAt <= now && now - w.lastUpdate >= graceMs);
+            if (!due) break;
+            windows.pollFirstEntry();
+            closedUpTo = Math.max(closedUpTo, w.start + windowMs);
+            if (w.recompute) {
+                dirty.add(w.start);
+            } else {
+                emit(w);
+            }
+        }
+
+        Iterator<Long> it = dirty.iterator();
+        while (it.hasNext()) {
+            long windowStart = it.next();
+            if (windowStart + windowMs > closedUpTo) break; // 仍在统计中的窗口
+            recompute(windowStart);
+            it.remove();
+        }
+    }
+
+    /**
+     * 回溯进度推进后，之前的空洞不会再被检查，直接丢弃
+     */
+    public void onRewindAdvanced(long rewindId) {
+        gaps.headMap(rewindId, true).entrySet().removeIf(e -> e.getValue() <= rewindId);
+    }
+
+    private void addGap(long from, long to) {
+        gaps.put(from, to);
+        if (gaps.size() > MAX_GAPS) gaps.pollFirstEntry();
+    }
+
+    private boolean takeFromGap(long id) {
+        Map.Entry<Long, Long> e = gaps.floorEntry(id);
+        if (e == null || e.getValue() < id) return false;
+        long from = e.getKey();
+        long to = e.getValue();
+        gaps.remove(from);
+        if (from < id) gaps.put(from, id - 1);
+        if (id < to) gaps.put(id + 1, to);
+        return true;
+    }
+
+    private void emit(Window w) throws InterruptedException {
+        int m = metricColumns.length;
+        for (int s = 0; s < w.size; s++) {
+            ObjectNode doc = JsonUtil.mapper().createObjectNode();
+            for (int i = 0; i < keyColumns.length; i++) {
+                JsonNode v = w.keys[s][i];
+                if (v != null) doc.set(keyColumns[i], v);
+            }
+            Double[] mins = new Double[m];
+            Double[] maxs = new Double[m];
+            Double[] sums = new Double[m];
+            for (int i = 0; i < m; i++) {
+                int off = s * m + i;
+                boolean seen = w.mins[off] != Double.POSITIVE_INFINITY;
+                mins[i] = seen ? w.mins[off] : null;
+                maxs[i] = seen ? w.maxs[off] : null;
+                sums[i] = seen ? w.sums[off] : null;
+            }
+            put(w.start, doc, w.keys[s], w.counts[s], mins, maxs, sums);
+        }
+        log.info("📊 [汇总] 表[{}] 窗口 {} 关闭，输出 {} 条汇总", task.tableName(),
+                FMT.format(Instant.ofEpochMilli(w.start)), w.size);
+    }
+
+    /**
+     * 对整个窗口执行 GROUP BY，得到包含迟到数据的完整结果
+     */
+    private void recompute(long windowStart) throws Exception {
+        StringBuilder select = new StringBuilder(String.join(", ", keyColumns)).append(", COUNT(*)");
+        for (String metric : metricColumns) {
+            select.append(String.format(", MIN(%1$s), MAX(%1$s), SUM(%1$s)", metric));
+        }
+        String sql = String.format("SELECT %s FROM %s WHERE %s >= ? AND %s < ? GROUP BY %s",
+                select, task.tableName(), timeColumn, timeColumn, String.join(", ", keyColumns));
+
+        readController.beforeQuery();
+        int groups = 0;
+        // 副本需包含实时流已读到的全部数据，否则回退到主库
+        try (Connection conn = readController.scanDataSource(lastLiveId).getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setTimestamp(1, new Timestamp(windowStart));
+            ps.setTimestamp(2, new Timestamp(windowStart + windowMs));
+            try (ResultSet rs = ps.executeQuery()) {
+                int k = keyColumns.length;
+                int m = metricColumns.length;
+                while (rs.next()) {
+                    ObjectNode doc = JsonUtil.mapper().createObjectNode();
+                    JsonNode[] keyValues = new JsonNode[k];
+                    for (int i = 0; i < k; i++) {
+                        Object v = rs.getObject(i + 1);
+                        if (v != null) doc.putPOJO(keyColumns[i], v);
+                        keyValues[i] = doc.get(keyColumns[i]);
+                    }
+                    Double[] mins = new Double[m];
+                    Double[] maxs = new Double[m];
+                    Double[] sums = new Double[m];
+                    for (int i = 0; i < m; i++) {
+                        int col = k + 2 + i * 3;
+                        mins[i] = nullableDouble(rs, col);
+                        maxs[i] = nullableDouble(rs, col + 1);
+                        sums[i] = nullableDouble(rs, col + 2);
+                    }
+                    put(windowStart, doc, keyValues, rs.getLong(k + 1), mins, maxs, sums);
+                    groups++;
+                }
+            }
+        }
+        readController.acquireRows(groups);
+        log.info("📊 [汇总重算] 表[{}] 窗口 {} 重新统计 {} 个分组", task.tableName(),
+                FMT.format(Instant.ofEpochMilli(windowStart)), groups);
+    }
+
+    private static Double nullableDouble(ResultSet rs, int col) throws Exception {
+        double v = rs.getDouble(col);
+        return rs.wasNull() ? null : v;
+    }
+
+    private void put(long windowStart, ObjectNode doc, JsonNode[] keyValues, long count,
+                     Double[] mins, Double[] maxs, Double[] sums) throws InterruptedException {
+        doc.put("window_start", FMT.format(Instant.ofEpochMilli(windowStart)));
+        doc.put("window_end", FMT.format(Instant.ofEpochMilli(windowStart + windowMs)));
+        doc.put("count", count);
+        for (int i = 0; i < metricColumns.length; i++) {
+            if (mins[i] == null) continue;
+            doc.put(metricColumns[i] + "_min", mins[i]);
+            doc.put(metricColumns[i] + "_max", maxs[i]);
+            doc.put(metricColumns[i] + "_sum", sums[i]);
+        }
+
+        // 确定的 _id：窗口起点 + 分组值，重算时覆盖之前的汇总
+        List<String> idParts = new ArrayList<>(keyValues.length + 1);
+        idParts.add(String.valueOf(windowStart));
+        for (JsonNode v : keyValues) idParts.add(String.valueOf(JsonUtil.rawValue(v)));
+
+        // 标记为修复数据：汇总写入不推进任何进度；按窗口起点所在日期路由索引
+        int routeDay = (int) LocalDate.ofInstant(Instant.ofEpochMilli(windowStart), ZoneId.systemDefault()).toEpochDay();
+        channel.put(new SyncData(0, null, String.join("_", idParts), JsonUtil.toJson(doc), true, null, routeDay));
+        emitted++;
+    }
+}
@@ -0,0 +1,318 @@
+package com.lhcz.db2es.core;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.lhcz.db2es.config.AppConfig;
+import com.lhcz.db2es.util.JsonUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Blob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 行编码器 (大字段直接写入编码结果)
+ * 大文本 / 二进制列 (CLOB、TEXT、BLOB、BYTEA 等，以及 columnLimits 中配置的列) 不再放入 ObjectNode 再序列化，
+ * 而是直接写入 JsonGenerator，并可按列截断：
+ * - CLOB / BLOB (驱动可能以定位符按需读取) 通过 getCharacterStream / getBlob 流式写入，JSON 中二进制按 Base64 流式编码，
+ *   SMILE 中二进制按已知长度流式写入；SMILE 生成器不支持从 Reader 写入文本，CLOB 在 SMILE 模式下读入一次 (受 maxChars 约束)
+ * - 其他大字段类型 (如 PostgreSQL 的 text / bytea) 驱动读取一行时已在内存中，用 getString / getBytes 取出后直接写入，不再额外复制
+ * 结果集以游标方式分批读取 (见 JdbcSource)，一页读完前以编码结果暂存。
+ * 其余列仍放入 ObjectNode，供窗口预聚合、按日期路由与维表关联使用；这些用途涉及的列总是完整读取，不会被当作大字段。
+ * 配置了维表关联时，行先编码，关联结果在整页关联完成后追加到已编码文档末尾 (append)。
+ * 仅由所属 JdbcSource 线程使用。
+ */
+public class RowEncoder {
+    // 长度超过该值 (或未知) 的字符串列视为大字段，如 PostgreSQL 的 text
+    private static final int LARGE_VARCHAR_PRECISION = 65535;
+    // 编码缓冲区超过该大小后不再复用，避免一行超大数据让缓冲区长期占用内存
+    private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+    private static final String DEFAULT_LIMIT_KEY = "*";
+
+    private static final int NORMAL = 0;
+    private static final int TEXT = 1;
+    private static final int BINARY = 2;
+    private static final int CLOB = 3;
+    private static final int BLOB = 4;
+    // SMILE 文档头 (4 字节) 与 START_OBJECT / END_OBJECT 标记
+    private static final int SMILE_HEADER_LENGTH = 4;
+    private static final byte SMILE_END_OBJECT = (byte) 0xFB;
+
+    /**
+     * 编码结果
+     * @param doc   普通列组成的文档 (不含大字段)
+     * @param json  完整 JSON 文档 (SMILE 模式下为 null)
+     * @param smile 完整 SMILE 文档 (JSON 模式下为 null)
+     */
+    public record Row(ObjectNode doc, String json, byte[] smile) {}
+
+    /**
+     * 一个结果集的列处理计划 (每页计算一次)
+     */
+    public static final class Columns {
+        private final String[] labels;
+        private final Set<String> labelSet;
+        private final int[] kinds;
+        private final int[] limits;
+        private final boolean streamed;
+
+        private Columns(String[] labels, int[] kinds, int[] limits) {
+            this.labels = labels;
+            this.labelSet = Set.of(labels);
+            this.kinds = kinds;
+            this.limits = limits;
+            boolean any = false;
+            for (int kind : kinds) any |= kind != NORMAL;
+            this.streamed = any;
+        }
+
+        /**
+         * 是否包含需要流式写入的大字段，不包含时调用方可沿用 ObjectNode 编码
+         */
+        public boolean hasStreamed() { return streamed; }
+
+        /**
+         * 结果集中是否包含该列
+         */
+        public boolean hasLabel(String label) { return labelSet.contains(label); }
+    }
+
+    private final Map<String, AppConfig.ColumnLimitConfig> limits;
+    private final Set<String> materialized = new HashSet<>();
+    private final boolean smile;
+    private final ObjectMapper mapper;
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+
+    public RowEncoder(AppConfig.TaskConfig task, boolean smile) {
+        this.limits = task.columnLimits() != null ? task.columnLimits() : Map.of();
+        this.smile = smile;
+        boolean lookups = task.lookups() != null && !task.lookups().isEmpty();
+        // 需要追加关联字段时 SMILE 不能使用字段名回引 (追加部分的回引序号无法与已编码部分对应)
+        this.mapper = smile ? (lookups ? JsonUtil.appendableSmileMapper() : JsonUtil.smileMapper()) : JsonUtil.mapper();
+        // 窗口预聚合、按日期路由与维表关联需要从文档中读取的列
+        if (lookups) {
+            for (AppConfig.LookupConfig lookup : task.lookups()) materialized.add(lookup.keyColumn());
+        }
+        if (task.indexDateColumn() != null) materialized.add(task.indexDateColumn());
+        if (task.timestampColumn() != null) materialized.add(task.timestampColumn());
+        AppConfig.RollupConfig rollup = task.rollup();
+        if (rollup != null) {
+            materialized.add(rollup.timeColumn());
+            addColumns(rollup.keyColumns());
+            addColumns(rollup.metricColumns());
+        }
+    }
+
+    private void addColumns(String columns) {
+        if (columns == null) return;
+        for (String c : columns.split(",")) {
+            if (!c.isBlank()) materialized.add(c.trim());
+        }
+    }
+
+    public Columns columns(ResultSetMetaData meta) throws Exception {
+        int count = meta.getColumnCount();
+        String[] labels = new String[count];
+        int[] kinds = new int[count];
+        int[] maxLengths = new int[count];
+        AppConfig.ColumnLimitConfig defaults = limits.get(DEFAULT_LIMIT_KEY);
+        for (int i = 0; i < count; i++) {
+            String label = meta.getColumnLabel(i + 1);
+            labels[i] = label;
+            if (materialized.contains(label)) continue;
+
+            AppConfig.ColumnLimitConfig limit = limits.getOrDefault(label, defaults);
+            int type = meta.getColumnType(i + 1);
+            if (isBinary(type)) {
+                kinds[i] = type == Types.BLOB ? BLOB : BINARY;
+                maxLengths[i] = (limit != null && limit.maxBytes() != null) ? limit.maxBytes() : -1;
+            } else if (isLargeText(type, meta.getPrecision(i + 1)) || limits.containsKey(label)) {
+                kinds[i] = (type == Types.CLOB || type == Types.NCLOB) ? CLOB : TEXT;
+                maxLengths[i] = (limit != null && limit.maxChars() != null) ? limit.maxChars() : -1;
+            }
+        }
+        return new Columns(labels, kinds, maxLengths);
+    }
+
+    private static boolean isBinary(int type) {
+        return type == Types.BLOB || type == Types.BINARY || type == Types.VARBINARY || type == Types.LONGVARBINARY;
+    }
+
+    private static boolean isLargeText(int type, int precision) {
+        return switch (type) {
+            case Types.CLOB, Types.NCLOB, Types.LONGVARCHAR, Types.LONGNVARCHAR -> true;
+            case Types.VARCHAR, Types.NVARCHAR -> precision <= 0 || precision > LARGE_VARCHAR_PRECISION;
+            default -> false;
+        };
+    }
+
+    /**
+     * 编码当前行
+     */
+    public Row encode(ResultSet rs, Columns columns) throws Exception {
+        ObjectNode doc = JsonUtil.mapper().createObjectNode();
+        if (buffer.size() > MAX_RETAINED_BUFFER) buffer = new ByteArrayOutputStream(8192);
+        buffer.reset();
+
+        try (JsonGenerator gen = mapper.getFactory().createGenerator(buffer)) {
+            gen.writeStartObject();
+            for (int i = 0; i < columns.labels.length; i++) {
+                String label = columns.labels[i];
+                switch (columns.kinds[i]) {
+                    case TEXT -> writeText(gen, rs, i + 1, label, columns.limits[i]);
+                    case CLOB -> writeClob(gen, rs, i + 1, label, columns.limits[i]);
+                    case BINARY -> writeBinary(gen, rs, i + 1, label, columns.limits[i]);
+                    case BLOB -> writeBlob(gen, rs, i + 1, label, columns.limits[i]);
+                    default -> {
+                        Object value = rs.getObject(i + 1);
+                        if (value != null) {
+                            doc.putPOJO(label, value);
+                            gen.writeFieldName(label);
+                            gen.writeObject(value); // 与 ObjectNode 序列化使用同一个 ObjectMapper 配置
+                        }
+                    }
+                }
+            }
+            gen.writeEndObject();
+        }
+        return smile
+                ? new Row(doc, null, buffer.toByteArray())
+                : new Row(doc, buffer.toString(StandardCharsets.UTF_8), null);
+    }
+
+    /**
+     * 驱动已在内存中的文本 (如 text / longtext)：直接写入，不经过 Reader 复制
+     */
+    private void writeText(JsonGenerator gen, ResultSet rs, int column, String label, int maxChars) throws Exception {
+        String value = rs.getString(column);
+        if (value == null) return;
+        gen.writeFieldName(label);
+        if (maxChars >= 0 && value.length() > maxChars) {
+            gen.writeString(value.substring(0, maxChars)); // 只复制保留的前 maxChars 个字符
+        } else {
+            gen.writeString(value);
+        }
+    }
+
+    private void writeClob(JsonGenerator gen, ResultSet rs, int column, String label, int maxChars) throws Exception {
+        Reader reader = rs.getCharacterStream(column);
+        if (reader == null) return;
+        try (Reader in = maxChars >= 0 ? new LimitedReader(reader, maxChars) : reader) {
+            gen.writeFieldName(label);
+            if (smile) {
+                // SMILE 生成器不支持从 Reader 写入，读入一次 (长度受 maxChars 约束)
+                StringBuilder sb = new StringBuilder();
+                char[] chunk = new char[8192];
+                int n;
+                while ((n = in.read(chunk)) > 0) sb.append(chunk, 0, n);
+                gen.writeString(sb.toString());
+            } else {
+                gen.writeString(in, -1);
+            }
+        }
+    }
+
+    /**
+     * 驱动已在内存中的二进制 (如 bytea / varbinary)：直接写入，截断时不复制
+     */
+    private void writeBinary(JsonGenerator gen, ResultSet rs, int column, String label, int maxBytes) throws Exception {
+        byte[] value = rs.getBytes(column);
+        if (value == null) return;
+        gen.writeFieldName(label);
+        gen.writeBinary(value, 0, maxBytes >= 0 ? Math.min(maxBytes, value.length) : value.length);
+    }
+
+    /**
+     * BLOB 按已知长度流式写入 (JSON 为 Base64 流式编码，SMILE 需要预先知道长度)
+     */
+    private void writeBlob(JsonGenerator gen, ResultSet rs, int column, String label, int maxBytes) throws Exception {
+        Blob blob = rs.getBlob(column);
+        if (blob == null) return;
+        try {
+            long length = blob.length();
+            int n = (int) Math.min(maxBytes >= 0 ? maxBytes : Integer.MAX_VALUE, length);
+            gen.writeFieldName(label);
+            try (InputStream in = blob.getBinaryStream()) {
+                gen.writeBinary(in, n);
+            }
+        } finally {
+            blob.free();
+        }
+    }
+
+    /**
+     * 把维表关联写入 doc 的新字段 (不在结果集中的字段) 追加到已编码文档末尾
+     * 调用方需保证关联不会覆盖结果集中已有的列 (见 Columns.hasLabel)
+     */
+    public Row append(Row row, Columns columns) throws Exception {
+        ObjectNode extra = null;
+        Iterator<Map.Entry<String, JsonNode>> fields = row.doc().fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> f = fields.next();
+            if (columns.hasLabel(f.getKey())) continue;
+            if (extra == null) extra = JsonUtil.mapper().createObjectNode();
+            extra.set(f.getKey(), f.getValue());
+        }
+        if (extra == null) return row;
+
+        if (smile) {
+            // 去掉原文档的 END_OBJECT，接上追加部分去掉文档头与 START_OBJECT 后的内容
+            byte[] tail = mapper.writeValueAsBytes(extra);
+            byte[] base = row.smile();
+            int baseLength = base.length - 1;
+            if (base[baseLength] != SMILE_END_OBJECT) throw new IllegalStateException("SMILE 文档未以 END_OBJECT 结尾");
+            int from = SMILE_HEADER_LENGTH + 1;
+            byte[] merged = Arrays.copyOf(base, baseLength + tail.length - from);
+            System.arraycopy(tail, from, merged, baseLength, tail.length - from);
+            return new Row(row.doc(), null, merged);
+        }
+        String base = row.json();
+        String tail = mapper.writeValueAsString(extra);
+        StringBuilder merged = new StringBuilder(base.length() + tail.length())
+                .append(base, 0, base.length() - 1);
+        if (base.length() > 2) merged.append(',');
+        merged.append(tail, 1, tail.length());
+        return new Row(row.doc(), merged.toString(), null);
+    }
+
+    /**
+     * 最多读取 remaining 个字符，之后视为结束
+     */
+    private static final class LimitedReader extends FilterReader {
+        private long remaining;
+
+        LimitedReader(Reader in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int c = super.read();
+            if (c >= 0) remaining--;
+            return c;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = super.read(cbuf, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+    }
+}
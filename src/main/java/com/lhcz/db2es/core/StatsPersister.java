@@ -0,0 +1,51 @@
+package com.lhcz.db2es.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * 每日统计定时保存
+ * EsSink 写入成功后只更新内存中的计数，由本线程按间隔把有变化的统计写入进度存储，
+ * 写入 ES 的批次之间不再同步重写进度文件 (或更新租约表)。Sink 退出时会自行保存最后一次统计。
+ * 同时按 changeDetection.persistIntervalMs 持久化内容指纹库，Sink 退出时再保存一次。
+ */
+public class StatsPersister implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(StatsPersister.class);
+
+    private final List<EsSink> sinks;
+    private final long intervalMs;
+    private volatile boolean running = true;
+
+    public StatsPersister(List<EsSink> sinks, long intervalMs) {
+        this.sinks = sinks;
+        this.intervalMs = intervalMs;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (EsSink sink : sinks) {
+                try {
+                    sink.persistStats();
+                } catch (Exception e) {
+                    log.warn("⚠️ [{}] 保存统计失败: {}", sink.getName(), e.toString());
+                }
+                try {
+                    sink.persistHashesIfDue();
+                } catch (Exception e) {
+                    log.warn("⚠️ [{}] 保存内容指纹库失败: {}", sink.getName(), e.toString());
+                }
+            }
+        }
+    }
+
+    public void stop() { this.running = false; }
+}
@@ -0,0 +1,112 @@
+package com.lhcz.db2es.core;
+
+import com.lhcz.db2es.config.AppConfig;
+
+import javax.net.ssl.SSLSession;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * 模拟 ES 节点池 (回放时使用)
+ * 不发送任何请求：读取请求体统计文档数，按可选的固定耗时等待后返回全部成功的 bulk 响应，
+ * 用于在没有 ES 的环境中单独测量 读取/编码/通道/组装 bulk 的开销。
+ */
+public class StubEsNodePool extends EsNodePool {
+    private static final int SMILE_SEPARATOR = 0xFF;
+
+    private final long latencyMs;
+
+    public StubEsNodePool(AppConfig.EsConfig esConfig, long latencyMs) {
+        super(esConfig, null);
+        this.latencyMs = latencyMs;
+    }
+
+    @Override
+    public HttpResponse<String> send(String method, String path, String contentType, HttpRequest.BodyPublisher body)
+            throws IOException, InterruptedException {
+        byte[] payload = read(body);
+        if (latencyMs > 0) Thread.sleep(latencyMs);
+        if (!path.startsWith("/_bulk")) {
+            return new StubResponse(method, path, "{\"acknowledged\":true}");
+        }
+
+        // action 与文档交替出现，每两行 (JSON 按换行、SMILE 按 0xFF 分隔) 为一个文档
+        int separator = contentType.contains("smile") ? SMILE_SEPARATOR : '\n';
+        int lines = 0;
+        for (byte b : payload) {
+            if ((b & 0xFF) == separator) lines++;
+        }
+        StringBuilder resp = new StringBuilder(32 + lines * 32).append("{\"took\":0,\"errors\":false,\"items\":[");
+        for (int i = 0; i < lines / 2; i++) {
+            if (i > 0) resp.append(',');
+            resp.append("{\"index\":{\"status\":201,\"result\":\"created\"}}");
+        }
+        return new StubResponse(method, path, resp.append("]}").toString());
+    }
+
+    /**
+     * 读取 BodyPublisher 中的全部字节
+     */
+    private static byte[] read(HttpRequest.BodyPublisher publisher) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) { subscription.request(Long.MAX_VALUE); }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                byte[] chunk = new byte[item.remaining()];
+                item.get(chunk);
+                out.write(chunk, 0, chunk.length);
+            }
+
+            @Override
+            public void onError(Throwable throwable) { done.completeExceptionally(throwable); }
+
+            @Override
+            public void onComplete() { done.complete(null); }
+        });
+        try {
+            done.join();
+        } catch (Exception e) {
+            throw new IOException("读取请求体失败", e);
+        }
+        return out.toByteArray();
+    }
+
+    private record StubResponse(String method, String path, String body) implements HttpResponse<String> {
+        @Override
+        public int statusCode() { return 200; }
+
+        @Override
+        public HttpRequest request() {
+            return HttpRequest.newBuilder(URI.create("http://stub" + path)).method(method, HttpRequest.BodyPublishers.noBody()).build();
+        }
+
+        @Override
+        public Optional<HttpResponse<String>> previousResponse() { return Optional.empty(); }
+
+        @Override
+        public HttpHeaders headers() { return HttpHeaders.of(Map.of(), (k, v) -> true); }
+
+        @Override
+        public URI uri() { return URI.create("http://stub" + path); }
+
+        @Override
+        public HttpClient.Version version() { return HttpClient.Version.HTTP_1_1; }
+
+        @Override
+        public Optional<SSLSession> sslSession() { return Optional.empty(); }
+    }
+}
@@ -0,0 +1,63 @@
+package com.lhcz.db2es.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 单个任务的吞吐时间序列 (固定分辨率环形缓冲区)
+ * 预分配 float 数组，写满后覆盖最旧的数据，内存占用恒定。
+ */
+public class ThroughputSeries {
+    public static final String[] METRICS = {"rowsPerSec", "docsPerSec", "bulkLatencyMs", "queueDepth"};
+
+    private final int capacity;
+    private final float[][] values;
+    private final long[] timestamps;
+    private int next;   // 下一个写入位置
+    private int count;  // 已写入点数 (<= capacity)
+
+    public ThroughputSeries(int capacity) {
+        this.capacity = capacity;
+        this.values = new float[METRICS.length][capacity];
+        this.timestamps = new long[capacity];
+    }
+
+    public synchronized void add(long timestamp, float rowsPerSec, float docsPerSec, float bulkLatencyMs, float queueDepth) {
+        timestamps[next] = timestamp;
+        values[0][next] = rowsPerSec;
+        values[1][next] = docsPerSec;
+        values[2][next] = bulkLatencyMs;
+        values[3][next] = queueDepth;
+        next = (next + 1) % capacity;
+        if (count < capacity) count++;
+    }
+
+    /**
+     * 按时间从旧到新导出全部数据点
+     */
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        int start = (next - count + capacity) % capacity;
+        long[] ts = new long[count];
+        for (int i = 0; i < count; i++) ts[i] = timestamps[(start + i) % capacity];
+        m.put("t", ts);
+        for (int k = 0; k < METRICS.length; k++) {
+            float[] arr = new float[count];
+            for (int i = 0; i < count; i++) arr[i] = values[k][(start + i) % capacity];
+            m.put(METRICS[k], arr);
+        }
+        return m;
+    }
+
+    /**
+     * 最新一个数据点，没有数据时返回 null
+     */
+    public synchronized Map<String, Object> latest() {
+        if (count == 0) return null;
+        int idx = (next - 1 + capacity) % capacity;
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("t", timestamps[idx]);
+        for (int k = 0; k < METRICS.length; k++) m.put(METRICS[k], values[k][idx]);
+        return m;
+    }
+}
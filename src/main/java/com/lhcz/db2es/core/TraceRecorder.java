@@ -0,0 +1,270 @@
+package com.lhcz.db2es.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.lhcz.db2es.config.AppConfig;
+import com.lhcz.db2es.model.SyncData;
+import com.lhcz.db2es.util.JsonUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 数据页采集 (离线性能测试用)
+ * 每 N 个非空页记录 1 页到本地轨迹文件 (GZIP 压缩)，记录内容为编码后的文档 (与写入 ES 的内容一致)、页读取耗时与采集时刻，
+ * 可选对指定列脱敏。轨迹文件可通过 TraceReplaySource 在没有数据库的环境中回放。
+ * 脱敏使用 HMAC-SHA256，密钥每次采集随机生成且不写入文件，无法通过字典穷举还原低熵的原值 (手机号、证件号等)；
+ * 游标列需要脱敏时改为按采集顺序编号 (保持递增，回放只用于进度)。
+ * 每页写完后同步刷新压缩流，进程异常退出时已写入的页仍可回放。
+ * 仅由所属 JdbcSource 线程使用。
+ *
+ * 文件格式: MAGIC(int) VERSION(short) 元数据(UTF JSON)，之后每页:
+ * PAGE(byte) 距采集开始的毫秒数(long) 查询耗时(int) 是否修复(boolean) 行数(int)，
+ * 每行: 游标ID(long) 是否有_id(boolean) [_id(UTF)] 路由日期(int) 文档长度(int) 文档字节
+ */
+public class TraceRecorder implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(TraceRecorder.class);
+
+    static final int MAGIC = 0x44423254; // "DB2T"
+    static final short VERSION = 1;
+    static final byte PAGE = 1;
+    static final String SUFFIX = ".trace.gz";
+    private static final int MIN_ID_LENGTH = 16;
+
+    private final String tableName;
+    private final int sampleEvery;
+    private final long maxBytes;
+    private final Set<String> anonymize;
+    private final boolean anonymizeId;
+    private final boolean anonymizeCursor;
+    // 每次采集随机生成密钥的 HMAC (未配置脱敏列时为 null)
+    private final Mac mac;
+    private final ObjectMapper codec;
+    private final File file;
+    private final long startedAt = System.currentTimeMillis();
+
+    private final CountingOutputStream counter;
+    private final DataOutputStream out;
+    private long pages;
+    private long recordedPages;
+    private long recordedRows;
+    private boolean full;
+
+    public TraceRecorder(AppConfig.TaskConfig task, AppConfig.TraceConfig config, boolean smile) throws IOException {
+        this.tableName = task.tableName();
+        this.sampleEvery = Math.max(1, config.sampleEvery() != null ? config.sampleEvery() : 10);
+        this.maxBytes = config.maxBytesPerFile() != null ? config.maxBytesPerFile() : 256L * 1024 * 1024;
+        this.anonymize = config.anonymizeColumns() != null ? new HashSet<>(config.anonymizeColumns()) : Set.of();
+        String pk = (task.pkColumn() != null && !task.pkColumn().isBlank()) ? task.pkColumn() : task.idColumn();
+        this.anonymizeId = anonymize.contains(pk);
+        this.anonymizeCursor = anonymize.contains(task.idColumn());
+        this.mac = anonymize.isEmpty() ? null : newMac();
+        this.codec = smile ? JsonUtil.smileMapper() : JsonUtil.mapper();
+
+        File dir = new File(dir(config));
+        if (!dir.exists() && dir.mkdirs()) {
+            log.info("📂 已创建轨迹目录: {}", dir.getAbsolutePath());
+        }
+        String time = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date(startedAt));
+        this.file = new File(dir, tableName + "-" + time + SUFFIX);
+        this.counter = new CountingOutputStream(new FileOutputStream(file));
+        this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(counter, 64 * 1024, true)));
+
+        ObjectNode meta = JsonUtil.mapper().createObjectNode();
+        meta.put("table", tableName);
+        meta.put("idColumn", task.idColumn());
+        meta.put("pkColumn", pk);
+        meta.put("columns", task.columns());
+        meta.put("format", smile ? "smile" : "json");
+        meta.put("capturedAt", startedAt);
+        meta.put("sampleEvery", sampleEvery);
+        meta.putPOJO("anonymized", anonymize);
+        meta.put("cursorRenumbered", anonymizeCursor);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeUTF(JsonUtil.toJson(meta));
+        out.flush();
+        log.info("🎥 [{}] 开始采集数据页 -> {} (每 {} 页记录 1 页, 脱敏列 {})", tableName, file, sampleEvery, anonymize);
+    }
+
+    private static Mac newMac() {
+        try {
+            byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 不可用", e);
+        }
+    }
+
+    static String dir(AppConfig.TraceConfig config) {
+        return (config.dir() != null && !config.dir().isBlank()) ? config.dir() : "traces";
+    }
+
+    /**
+     * 表最新的轨迹文件，没有时返回 null
+     */
+    static File latest(AppConfig.TraceConfig config, String tableName) {
+        File[] files = new File(dir(config)).listFiles((d, name) ->
+                name.startsWith(tableName + "-") && name.endsWith(SUFFIX));
+        if (files == null || files.length == 0) return null;
+        // 文件名中的时间可按字典序比较
+        return Arrays.stream(files).max((a, b) -> a.getName().compareTo(b.getName())).orElse(null);
+    }
+
+    /**
+     * 一页读取完成后调用，按采样间隔决定是否记录
+     * @param startedAt 本页开始读取的时间
+     * @param queryMs   本页查询耗时
+     */
+    public void offer(List<SyncData> page, long startedAt, long queryMs, boolean repair) {
+        if (full || page.isEmpty() || pages++ % sampleEvery != 0) return;
+        try {
+            out.writeByte(PAGE);
+            out.writeLong(startedAt - this.startedAt);
+            out.writeInt((int) queryMs);
+            out.writeBoolean(repair);
+            out.writeInt(page.size());
+            long ordinal = recordedRows;
+            for (SyncData data : page) {
+                out.writeLong(anonymizeCursor ? ++ordinal : data.idCursorVal());
+                String id = data.esIdVal();
+                out.writeBoolean(id != null);
+                // _id 至少 16 个十六进制字符 (64 位)，避免短 _id 碰撞后合并不同文档
+                if (id != null) out.writeUTF(anonymizeId ? pseudo(id, MIN_ID_LENGTH) : id);
+                out.writeInt(data.routeDay());
+                byte[] body = body(data);
+                out.writeInt(body.length);
+                out.write(body);
+            }
+            out.flush();
+            recordedPages++;
+            recordedRows += page.size();
+            if (counter.count >= maxBytes) {
+                full = true;
+                log.info("🎥 [{}] 轨迹文件已达上限 ({} 页, {} 行)，停止采集", tableName, recordedPages, recordedRows);
+            }
+        } catch (Exception e) {
+            // 采集失败不影响同步
+            full = true;
+            log.warn("⚠️ [{}] 写入轨迹文件失败，停止采集: {}", tableName, e.toString());
+        }
+    }
+
+    private byte[] body(SyncData data) throws IOException {
+        byte[] raw = data.smileBody() != null ? data.smileBody() : data.jsonBody().getBytes(StandardCharsets.UTF_8);
+        if (anonymize.isEmpty()) return raw;
+        JsonNode doc = codec.readTree(raw);
+        if (!(doc instanceof ObjectNode node)) return raw;
+        for (String column : anonymize) {
+            JsonNode value = node.get(column);
+            if (value == null || value.isNull()) continue;
+            if (value.isIntegralNumber()) {
+                node.put(column, Long.parseLong(pseudoDigits(value.asText())));
+            } else if (value.isTextual()) {
+                node.put(column, pseudo(value.asText(), 0));
+            }
+        }
+        return codec.writeValueAsBytes(node);
+    }
+
+    /**
+     * 伪值：同一输入总是得到同一结果 (保留基数与长度分布)，长度不少于 minLength
+     */
+    private String pseudo(String value, int minLength) {
+        int length = Math.max(value.length(), minLength);
+        byte[] digest = digest(value, (length + 1) / 2);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; sb.length() < length; i++) {
+            sb.append(Character.forDigit((digest[i / 2] >>> (i % 2 == 0 ? 4 : 0)) & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private String pseudoDigits(String value) {
+        boolean negative = value.startsWith("-");
+        String digits = negative ? value.substring(1) : value;
+        int length = Math.min(digits.length(), 18);
+        byte[] digest = digest(value, length);
+        StringBuilder sb = new StringBuilder(value.length());
+        if (negative) sb.append('-');
+        for (int i = 0; i < length; i++) {
+            int d = (digest[i] & 0xFF) % 10;
+            sb.append(i == 0 && length > 1 ? 1 + d % 9 : d); // 不产生前导 0
+        }
+        return sb.toString();
+    }
+
+    /**
+     * HMAC-SHA256(值, 块序号) 依次拼接，得到至少 bytes 个字节
+     */
+    private byte[] digest(String value, int bytes) {
+        byte[] input = value.getBytes(StandardCharsets.UTF_8);
+        byte[] result = new byte[bytes];
+        for (int block = 0, filled = 0; filled < bytes; block++) {
+            mac.update(input);
+            mac.update((byte) block);
+            byte[] h = mac.doFinal();
+            int n = Math.min(h.length, bytes - filled);
+            System.arraycopy(h, 0, result, filled, n);
+            filled += n;
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        try {
+            out.close();
+            log.info("🎥 [{}] 采集结束: {} 页, {} 行, {} KB -> {}", tableName, recordedPages, recordedRows,
+                    counter.count / 1024, file);
+        } catch (IOException e) {
+            log.warn("⚠️ [{}] 关闭轨迹文件失败: {}", tableName, e.toString());
+        }
+    }
+
+    /**
+     * 统计压缩后写入的字节数
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.lhcz.db2es.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.lhcz.db2es.model.SyncData;
+import com.lhcz.db2es.util.JsonUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 轨迹回放 (替代 JdbcSource，不连接数据库)
+ * 读取 TraceRecorder 采集的轨迹文件，按采集时的节奏 (页之间的时间间隔与查询耗时) 或全速把数据放入各写入目标的通道，
+ * 结束后输出总耗时与吞吐，用于对比不同版本的写入性能。
+ * 轨迹格式与当前编码格式 (JSON/SMILE) 不一致时自动转换 (转换耗时计入回放)。
+ */
+public class TraceReplaySource implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(TraceReplaySource.class);
+
+    private final String tableName;
+    private final File file;
+    private final List<JdbcSource.Output> outputs;
+    private final boolean smile;
+    private final boolean recordedSpeed;
+    private volatile boolean running = true;
+
+    /**
+     * @param smile         当前编码格式是否为 SMILE
+     * @param recordedSpeed true 按采集时的节奏回放，false 全速
+     */
+    public TraceReplaySource(String tableName, File file, List<JdbcSource.Output> outputs, boolean smile,
+                             boolean recordedSpeed) {
+        this.tableName = tableName;
+        this.file = file;
+        this.outputs = outputs;
+        this.smile = smile;
+        this.recordedSpeed = recordedSpeed;
+    }
+
+    @Override
+    public void run() {
+        long pages = 0;
+        long rows = 0;
+        long start = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file), 64 * 1024)))) {
+            if (in.readInt() != TraceRecorder.MAGIC) throw new IOException("不是轨迹文件: " + file);
+            short version = in.readShort();
+            if (version != TraceRecorder.VERSION) throw new IOException("不支持的轨迹版本: " + version);
+            JsonNode meta = JsonUtil.mapper().readTree(in.readUTF());
+            boolean traceSmile = "smile".equals(meta.path("format").asText());
+            log.info("▶️ [{}] 开始回放 {} (采集于 {}, 格式 {}, {})", tableName, file,
+                    new Date(meta.path("capturedAt").asLong()), meta.path("format").asText(),
+                    recordedSpeed ? "按采集节奏" : "全速");
+
+            while (running) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break; // 文件结束 (包括采集进程异常退出时的截断)
+                }
+                if (type != TraceRecorder.PAGE) throw new IOException("轨迹文件损坏: 未知记录类型 " + type);
+
+                long offsetMs = in.readLong();
+                int queryMs = in.readInt();
+                boolean repair = in.readBoolean();
+                int count = in.readInt();
+
+                if (recordedSpeed) {
+                    // 页开始时间 + 查询耗时，还原数据到达通道的时刻
+                    long due = start + offsetMs + queryMs - System.currentTimeMillis();
+                    if (due > 0) Thread.sleep(due);
+                }
+                for (int i = 0; i < count; i++) {
+                    long cursor = in.readLong();
+                    String id = in.readBoolean() ? in.readUTF() : null;
+                    int routeDay = in.readInt();
+                    byte[] body = new byte[in.readInt()];
+                    in.readFully(body);
+                    dispatch(decode(cursor, id, routeDay, body, traceSmile, repair));
+                }
+                pages++;
+                rows += count;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (EOFException e) {
+            log.warn("⚠️ [{}] 轨迹文件在页中间截断，已回放完整的部分", tableName);
+        } catch (Exception e) {
+            log.error("❌ [{}] 回放失败: {}", tableName, e.toString());
+        }
+
+        long cost = Math.max(1, System.currentTimeMillis() - start);
+        log.info("⏹️ [{}] 回放结束: {} 页, {} 行, 耗时 {}ms ({} 行/秒，不含通道中尚未写入的数据)",
+                tableName, pages, rows, cost, rows * 1000 / cost);
+    }
+
+    private SyncData decode(long cursor, String id, int routeDay, byte[] body, boolean traceSmile, boolean repair) {
+        if (smile) {
+            byte[] smileBody = traceSmile ? body : JsonUtil.jsonToSmile(new String(body, StandardCharsets.UTF_8));
+            return new SyncData(cursor, null, id, null, repair, smileBody, routeDay);
+        }
+        String json = traceSmile ? JsonUtil.smileToJson(body) : new String(body, StandardCharsets.UTF_8);
+        return new SyncData(cursor, null, id, json, repair, null, routeDay);
+    }
+
+    private void dispatch(SyncData data) throws InterruptedException {
+        for (JdbcSource.Output output : outputs) {
+            if (data.isRepair() && !output.acceptsRepair()) continue;
+            output.channel().put(data);
+        }
+    }
+
+    public void stop() {
+        this.running = false;
+    }
+}
@@ -13,8 +13,14 @@ import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * 简易 Web 管理控制台
@@ -25,13 +31,20 @@ public class WebConsole {
     private final int port;
     private final List<JdbcSource> sources;
     private final List<EsSink> sinks;
+    private final EsNodePool nodePool;
+    private final MetricsSampler sampler;
+    private final LagMonitor lagMonitor;
     private HttpServer server;
     private final ObjectMapper mapper = new ObjectMapper();
 
-    public WebConsole(int port, List<JdbcSource> sources, List<EsSink> sinks) {
+    public WebConsole(int port, List<JdbcSource> sources, List<EsSink> sinks, EsNodePool nodePool, MetricsSampler sampler,
+                      LagMonitor lagMonitor) {
         this.port = port;
         this.sources = sources;
         this.sinks = sinks;
+        this.nodePool = nodePool;
+        this.sampler = sampler;
+        this.lagMonitor = lagMonitor;
     }
 
     public void start() {
@@ -39,7 +52,11 @@ public class WebConsole {
             server = HttpServer.create(new InetSocketAddress(port), 0);
             server.createContext("/", new DashboardHandler());
             server.createContext("/api/status", new StatusHandler());
-            server.setExecutor(null); // creates a default executor
+            server.createContext("/api/nodes", new NodesHandler());
+            server.createContext("/api/series", new SeriesHandler());
+            server.createContext("/api/stream", new StreamHandler());
+            // SSE 连接会长时间占用处理线程，使用虚拟线程避免阻塞其他请求
+            server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
             server.start();
             log.info("🌐 Web 管理控制台已启动: http://localhost:{}", port);
         } catch (IOException e) {
@@ -131,7 +148,7 @@ public class WebConsole {
                     <div class="container">
                         <div class="header">
                             <h1>Db2Es 数据同步监控</h1>
-                            <span class="refresh-hint">自动刷新中...</span>
+                            <span class="refresh-hint">实时推送中...</span>
                         </div>
                         
                         <div class="card">
@@ -141,9 +158,15 @@ public class WebConsole {
                                         <th>表名 (Table)</th>
                                         <th>索引 (Index)</th>
                                         <th>当前 ID 进度</th>
+                                        <th>落后 (行 / 秒 / ETA)</th>
+                                        <th>读取 (rows/s)</th>
+                                        <th>写入 (docs/s)</th>
+                                        <th>Bulk 延迟 (ms)</th>
+                                        <th>缓冲 (条 / MB)</th>
                                         <th>当日创建 (Created)</th>
                                         <th>当日更新 (Updated)</th>
                                         <th>当日失败 (Failed)</th>
+                                        <th>跳过未变化 (Skipped)</th>
                                     </tr>
                                 </thead>
                                 <tbody id="task-list">
@@ -154,44 +177,93 @@ public class WebConsole {
                     </div>
 
                     <script>
-                        function fetchStatus() {
-                            fetch('/api/status')
-                                .then(response => response.json())
-                                .then(data => {
-                                    const tbody = document.getElementById('task-list');
-                                    tbody.innerHTML = '';
-                                    data.forEach(task => {
-                                        const row = `
-                                            <tr>
-                                                <td>
-                                                    <span class="font-bold">${task.tableName}</span>
-                                                </td>
-                                                <td>
-                                                    ${task.esIndex}
-                                                </td>
-                                                <td>
-                                                    <span class="badge">${task.currentId}</span>
-                                                </td>
-                                                <td>
-                                                    <span class="text-green">+${task.totalCreated}</span>
-                                                </td>
-                                                <td>
-                                                    <span class="text-yellow">~${task.totalUpdated}</span>
-                                                </td>
-                                                <td>
-                                                    <span class="text-red">${task.totalFailed}</span>
-                                                </td>
-                                            </tr>
-                                        `;
-                                        tbody.innerHTML += row;
-                                    });
-                                })
-                                .catch(err => console.error('Error fetching status:', err));
-                        }
-
-                        // 初始加载并每 3 秒刷新一次
-                        fetchStatus();
-                        setInterval(fetchStatus, 3000);
+                        // 每个任务的时间序列 (由 /api/series 初始化，之后通过 SSE 增量追加)
+                        const METRICS = ['rowsPerSec', 'docsPerSec', 'bulkLatencyMs', 'queueDepth'];
+                        let series = {};
+                        let maxPoints = 2160;
+
+                        function appendPoint(table, p) {
+                            const s = series[table] || (series[table] = {});
+                            METRICS.forEach(m => {
+                                const arr = s[m] || (s[m] = []);
+                                arr.push(p[m]);
+                                if (arr.length > maxPoints) arr.shift();
+                            });
+                        }
+
+                        function sparkline(values, color) {
+                            if (!values || values.length < 2) return '';
+                            const max = Math.max(...values, 1);
+                            const pts = values.map((v, i) => i + ',' + (30 - v / max * 28).toFixed(1)).join(' ');
+                            return `<svg width="120" height="32" viewBox="0 0 ${values.length - 1} 32" preserveAspectRatio="none">`
+                                + `<polyline fill="none" stroke="${color}" stroke-width="1.5" vector-effect="non-scaling-stroke" points="${pts}"/></svg>`;
+                        }
+
+                        function metricCell(table, metric, color, digits) {
+                            const values = (series[table] || {})[metric] || [];
+                            const last = values.length ? values[values.length - 1] : 0;
+                            return `<td><div class="font-bold">${last.toFixed(digits)}</div>${sparkline(values, color)}</td>`;
+                        }
+
+                        function formatSeconds(sec) {
+                            if (sec === null || sec === undefined) return '-';
+                            if (sec < 60) return Math.round(sec) + 's';
+                            if (sec < 3600) return Math.round(sec / 60) + 'm';
+                            return (sec / 3600).toFixed(1) + 'h';
+                        }
+
+                        function lagCell(task) {
+                            if (task.rowsBehind === undefined) return '<td>-</td>';
+                            const cls = task.lagAlert ? 'text-red' : 'font-bold';
+                            return `<td><span class="${cls}">${task.rowsBehind}</span>`
+                                + ` / ${formatSeconds(task.secondsBehind)} / ETA ${formatSeconds(task.etaSeconds)}</td>`;
+                        }
+
+                        function render(data) {
+                            // 一次性拼接整张表，避免逐行 innerHTML += 反复重排
+                            const rows = data.map(task => `
+                                <tr>
+                                    <td><span class="font-bold">${task.tableName}</span></td>
+                                    <td>${task.esIndex}</td>
+                                    <td>
+                                        <span class="badge">${task.currentId}</span>
+                                        <div>页 ${task.pageSize} / ${task.lastQueryMs}ms</div>
+                                    </td>
+                                    ${lagCell(task)}
+                                    ${metricCell(task.tableName, 'rowsPerSec', '#2563eb', 0)}
+                                    ${metricCell(task.tableName, 'docsPerSec', '#059669', 0)}
+                                    ${metricCell(task.tableName, 'bulkLatencyMs', '#d97706', 1).replace('</td>', `<div>组装 ${task.flushOverheadUs}µs</div></td>`)}
+                                    <td>
+                                        ${task.queueSize} / ${(task.queueBytes / 1048576).toFixed(1)}
+                                        ${sparkline((series[task.tableName] || {}).queueDepth, '#6b7280')}
+                                    </td>
+                                    <td><span class="text-green">+${task.totalCreated}</span></td>
+                                    <td><span class="text-yellow">~${task.totalUpdated}</span></td>
+                                    <td><span class="text-red">${task.totalFailed}</span></td>
+                                    <td>${task.totalSkipped} (合并 ${task.totalCollapsed})</td>
+                                </tr>`);
+                            document.getElementById('task-list').innerHTML = rows.join('');
+                        }
+
+                        fetch('/api/series')
+                            .then(response => response.json())
+                            .then(data => {
+                                maxPoints = data.historyPoints;
+                                Object.entries(data.tasks).forEach(([table, s]) => {
+                                    series[table] = {};
+                                    METRICS.forEach(m => series[table][m] = Array.from(s[m]));
+                                });
+                            })
+                            .catch(err => console.error('Error fetching series:', err))
+                            .finally(() => {
+                                // 服务端每个采样周期推送一次 (断线后浏览器会自动重连)
+                                const source = new EventSource('/api/stream');
+                                source.onmessage = e => {
+                                    const msg = JSON.parse(e.data);
+                                    Object.entries(msg.points || {}).forEach(([table, p]) => appendPoint(table, p));
+                                    render(msg.status);
+                                };
+                            });
                     </script>
                 </body>
                 </html>
@@ -205,32 +277,124 @@ public class WebConsole {
         }
     }
 
+    private List<Map<String, Object>> buildStatus() {
+        List<Map<String, Object>> statusList = new ArrayList<>();
+
+        // 集群模式下任务会动态增减，按表名匹配 source 与 sink (一个 source 可对应多个写入目标)
+        Map<String, JdbcSource> sourceByTable = new HashMap<>();
+        for (JdbcSource source : sources) {
+            sourceByTable.put(source.getTaskConfig().tableName(), source);
+        }
+        for (EsSink sink : sinks) {
+            JdbcSource source = sourceByTable.get(sink.getTaskConfig().tableName());
+            if (source == null) continue;
+
+            Map<String, Object> status = new HashMap<>();
+            status.put("tableName", sink.getName());
+            status.put("esIndex", sink.getEsIndex());
+            status.put("currentId", source.getCurrentId());
+            status.put("totalCreated", sink.getTotalCreated());
+            status.put("totalUpdated", sink.getTotalUpdated());
+            status.put("totalFailed", sink.getTotalFailed());
+            status.put("totalSkipped", sink.getTotalSkipped());
+            status.put("queueSize", sink.getQueueSize());
+            status.put("queueBytes", sink.getQueueBytes());
+            status.put("totalCollapsed", sink.getTotalCollapsed());
+            long flushes = sink.getFlushCount();
+            status.put("flushOverheadUs", flushes > 0 ? sink.getFlushOverheadNanos() / 1000 / flushes : 0);
+            status.put("pageSize", source.getReadController().getPageSize());
+            status.put("lastQueryMs", source.getReadController().getLastQueryMs());
+
+            LagMonitor.LagStatus lag = lagMonitor.getStatus(source.getTaskConfig().tableName());
+            if (lag != null) {
+                status.put("rowsBehind", lag.rowsBehind());
+                status.put("secondsBehind", lag.secondsBehind());
+                status.put("etaSeconds", lag.etaSeconds());
+                status.put("lagAlert", lag.alert());
+            }
+            statusList.add(status);
+        }
+        return statusList;
+    }
+
+    private void sendJson(HttpExchange t, Object value) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(value);
+        t.getResponseHeaders().set("Content-Type", "application/json");
+        t.sendResponseHeaders(200, bytes.length);
+        OutputStream os = t.getResponseBody();
+        os.write(bytes);
+        os.close();
+    }
+
     private class StatusHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange t) throws IOException {
-            List<Map<String, Object>> statusList = new ArrayList<>();
-
-            // 假设 sources 和 sinks 是按顺序对应的
-            for (int i = 0; i < sources.size(); i++) {
-                JdbcSource source = sources.get(i);
-                EsSink sink = sinks.get(i);
-
-                Map<String, Object> status = new HashMap<>();
-                status.put("tableName", source.getTaskConfig().tableName());
-                status.put("esIndex", source.getTaskConfig().esIndex());
-                status.put("currentId", source.getCurrentId());
-                status.put("totalCreated", sink.getTotalCreated());
-                status.put("totalUpdated", sink.getTotalUpdated());
-                status.put("totalFailed", sink.getTotalFailed());
-                statusList.add(status);
+            sendJson(t, buildStatus());
+        }
+    }
+
+    private class SeriesHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange t) throws IOException {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("resolutionMs", sampler.getResolutionMs());
+            result.put("historyPoints", sampler.getHistoryPoints());
+            result.put("tasks", sampler.history());
+            sendJson(t, result);
+        }
+    }
+
+    /**
+     * Server-Sent Events 推送：每个采样周期推送一次任务状态和最新数据点
+     */
+    private class StreamHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange t) throws IOException {
+            // 每个连接一个有界队列，客户端消费过慢时丢弃新消息，不影响采样线程
+            BlockingQueue<String> outbox = new LinkedBlockingQueue<>(16);
+            Consumer<Map<String, Object>> listener = points -> {
+                try {
+                    Map<String, Object> msg = new LinkedHashMap<>();
+                    msg.put("status", buildStatus());
+                    msg.put("points", points);
+                    outbox.offer(mapper.writeValueAsString(msg));
+                } catch (Exception e) {
+                    log.debug("SSE 消息序列化失败: {}", e.toString());
+                }
+            };
+
+            t.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+            t.getResponseHeaders().set("Cache-Control", "no-cache");
+            t.sendResponseHeaders(200, 0);
+            sampler.addListener(listener);
+            try (OutputStream os = t.getResponseBody()) {
+                // 连接建立后立即推送一次当前状态
+                Map<String, Object> first = new LinkedHashMap<>();
+                first.put("status", buildStatus());
+                os.write(("data: " + mapper.writeValueAsString(first) + "\n\n").getBytes(StandardCharsets.UTF_8));
+                os.flush();
+
+                while (true) {
+                    String msg = outbox.poll(15, TimeUnit.SECONDS);
+                    // 长时间无数据时发送注释行保活，同时用于发现已断开的连接
+                    String frame = (msg != null) ? "data: " + msg + "\n\n" : ": ping\n\n";
+                    os.write(frame.getBytes(StandardCharsets.UTF_8));
+                    os.flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                log.debug("SSE 客户端已断开: {}", e.toString());
+            } finally {
+                sampler.removeListener(listener);
             }
+        }
+    }
 
-            String json = mapper.writeValueAsString(statusList);
-            t.getResponseHeaders().set("Content-Type", "application/json");
-            t.sendResponseHeaders(200, json.getBytes(StandardCharsets.UTF_8).length);
-            OutputStream os = t.getResponseBody();
-            os.write(json.getBytes(StandardCharsets.UTF_8));
-            os.close();
+    private class NodesHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange t) throws IOException {
+            sendJson(t, nodePool.getNodeStatus());
         }
     }
 }
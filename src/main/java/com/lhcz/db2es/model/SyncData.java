@@ -1,11 +1,34 @@
 package com.lhcz.db2es.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 /**
  * 数据传输对象
  * @param idCursorVal      用于断点续传的ID游标值 (来自 idColumn，必须是递增数字)
  * @param timestampCursorVal 用于断点续传的时间戳游标值 (来自 timestampColumn)
  * @param esIdVal          用于 ES 去重的唯一ID (来自 pkColumn，可以是UUID等任意唯一值)
- * @param jsonBody         转换好的JSON字符串
+ * @param jsonBody         转换好的JSON字符串 (SMILE 模式下为 null)
  * @param isRepair         是否为回溯修复数据 (true=不更新进度, false=正常更新进度)
+ * @param smileBody        🟢 新增：SMILE 二进制编码的文档 (es.format=smile 时使用，否则为 null)
+ * @param routeDay         🟢 新增：按日期列路由的日期 (epoch day)，用于解析 #(dtmon)/#(dtday)；NO_ROUTE_DAY 表示使用写入当天
  */
-public record SyncData(long idCursorVal, String timestampCursorVal, String esIdVal, String jsonBody, boolean isRepair) {}
+public record SyncData(long idCursorVal, String timestampCursorVal, String esIdVal, String jsonBody, boolean isRepair,
+                       @JsonIgnore byte[] smileBody, int routeDay) {
+
+    public static final int NO_ROUTE_DAY = Integer.MIN_VALUE;
+
+    public SyncData(long idCursorVal, String timestampCursorVal, String esIdVal, String jsonBody, boolean isRepair) {
+        this(idCursorVal, timestampCursorVal, esIdVal, jsonBody, isRepair, null, NO_ROUTE_DAY);
+    }
+
+    /**
+     * 估算占用的堆内存字节数 (用于按字节背压，按每字符 2 字节保守估算)
+     */
+    public long estimatedBytes() {
+        long size = 64;
+        if (jsonBody != null) size += 2L * jsonBody.length();
+        if (smileBody != null) size += 16 + smileBody.length;
+        if (esIdVal != null) size += 2L * esIdVal.length();
+        return size;
+    }
+}
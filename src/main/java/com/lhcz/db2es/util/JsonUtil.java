@@ -1,14 +1,30 @@
 package com.lhcz.db2es.util;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.POJONode;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
 import java.util.TimeZone;
 
 public class JsonUtil {
     private static final ObjectMapper mapper = new ObjectMapper();
+    // 🟢 新增：SMILE 二进制编码 (与 JSON 使用相同的日期格式)
+    private static final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+    // 🟢 新增：不使用字段名回引的 SMILE 编码，编码后的文档可在末尾追加字段 (大字段行的维表关联)
+    private static final ObjectMapper appendableSmileMapper = new ObjectMapper(SmileFactory.builder()
+            .disable(SmileGenerator.Feature.CHECK_SHARED_NAMES).build());
+    private static final DateTimeFormatter TEXT_DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
     static {
         // 🔴 关键修复：配置日期格式
@@ -18,23 +34,112 @@ public class JsonUtil {
         // 使用系统默认时区 (通常与数据库和服务器一致)
         sdf.setTimeZone(TimeZone.getDefault());
         mapper.setDateFormat(sdf);
+        smileMapper.setDateFormat(sdf);
+        appendableSmileMapper.setDateFormat(sdf);
     }
 
     public static String resultSetToJson(ResultSet rs) {
+        return toJson(resultSetToNode(rs, 1));
+    }
+
+    /**
+     * 将当前行转换为 ObjectNode (用于维表关联等需要修改文档的场景)
+     * @param fromColumn 起始列号 (从 1 开始)，之前的列不写入文档
+     */
+    public static ObjectNode resultSetToNode(ResultSet rs, int fromColumn) {
         try {
             ObjectNode node = mapper.createObjectNode();
             ResultSetMetaData meta = rs.getMetaData();
             int count = meta.getColumnCount();
-            for (int i = 1; i <= count; i++) {
+            for (int i = fromColumn; i <= count; i++) {
                 String name = meta.getColumnLabel(i);
                 Object value = rs.getObject(i);
                 if (value != null) {
                     node.putPOJO(name, value);
                 }
             }
+            return node;
+        } catch (Exception e) {
+            throw new RuntimeException("JSON conversion failed", e);
+        }
+    }
+
+    public static String toJson(JsonNode node) {
+        try {
             return mapper.writeValueAsString(node);
         } catch (Exception e) {
             throw new RuntimeException("JSON conversion failed", e);
         }
     }
+
+    /**
+     * 编码为 SMILE 二进制文档 (默认开启 7 位编码，内容中不会出现流分隔符 0xFF)
+     */
+    public static byte[] toSmile(JsonNode node) {
+        try {
+            return smileMapper.writeValueAsBytes(node);
+        } catch (Exception e) {
+            throw new RuntimeException("SMILE conversion failed", e);
+        }
+    }
+
+    public static String smileToJson(byte[] smile) {
+        try {
+            return mapper.writeValueAsString(smileMapper.readTree(smile));
+        } catch (Exception e) {
+            throw new RuntimeException("SMILE conversion failed", e);
+        }
+    }
+
+    public static byte[] jsonToSmile(String json) {
+        try {
+            return smileMapper.writeValueAsBytes(mapper.readTree(json));
+        } catch (Exception e) {
+            throw new RuntimeException("SMILE conversion failed", e);
+        }
+    }
+
+    /**
+     * 取文档字段的原始值 (resultSetToNode 写入的是 POJO 节点)
+     */
+    public static Object rawValue(JsonNode node) {
+        if (node == null || node.isNull() || node.isMissingNode()) return null;
+        if (node instanceof POJONode pojo) return pojo.getPojo();
+        if (node.isNumber()) return node.numberValue();
+        return node.asText();
+    }
+
+    /**
+     * 将时间字段转换为毫秒时间戳 (支持 JDBC 时间类型、数字时间戳和 yyyy-MM-dd HH:mm:ss 文本)
+     * @return 无法识别时返回 null
+     */
+    public static Long epochMillis(JsonNode node) {
+        Object value = rawValue(node);
+        if (value instanceof Date d) return d.getTime();
+        if (value instanceof LocalDateTime ldt) return ldt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        if (value instanceof OffsetDateTime odt) return odt.toInstant().toEpochMilli();
+        if (value instanceof LocalDate ld) return ld.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        if (value instanceof Number n) return n.longValue();
+        if (value instanceof String s && s.length() >= 19) {
+            try {
+                return LocalDateTime.parse(s.substring(0, 19), TEXT_DATE_TIME)
+                        .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            } catch (Exception ignored) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    public static ObjectMapper mapper() {
+        return mapper;
+    }
+
+    public static ObjectMapper smileMapper() {
+        return smileMapper;
+    }
+
+    public static ObjectMapper appendableSmileMapper() {
+        return appendableSmileMapper;
+    }
 }
\ No newline at end of file
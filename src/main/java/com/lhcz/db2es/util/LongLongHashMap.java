@@ -0,0 +1,166 @@
+package com.lhcz.db2es.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * long -> long 开放寻址哈希表 (线性探测)
+ * 数据存放在一整块 ByteBuffer 中 (可选堆外)，每个槽位 16 字节，没有对象头和装箱开销。
+ * key 为 0 表示空槽，因此 0 会被映射为其他值；不支持删除单个 key。
+ * 非线程安全。
+ */
+public class LongLongHashMap {
+    private static final int SLOT_BYTES = 16;
+    private static final long FILE_MAGIC = 0x4442324553484d31L; // "DB2ESHM1"
+
+    private final boolean offHeap;
+    private ByteBuffer table;
+    private int capacity; // 槽位数，2 的幂
+    private int mask;
+    private int size;
+
+    public LongLongHashMap(int initialCapacity, boolean offHeap) {
+        this.offHeap = offHeap;
+        allocate(tableSizeFor(Math.max(16, initialCapacity)));
+    }
+
+    private void allocate(int slots) {
+        this.capacity = slots;
+        this.mask = slots - 1;
+        this.table = (offHeap ? ByteBuffer.allocateDirect(slots * SLOT_BYTES) : ByteBuffer.allocate(slots * SLOT_BYTES))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        this.size = 0;
+    }
+
+    private static int tableSizeFor(int n) {
+        int c = Integer.highestOneBit(n - 1) << 1;
+        return c <= 0 ? (1 << 30) : c;
+    }
+
+    private static long normalize(long key) {
+        return key == 0 ? 0x9E3779B97F4A7C15L : key;
+    }
+
+    private static int spread(long key) {
+        long h = key ^ (key >>> 32);
+        return (int) (h ^ (h >>> 16));
+    }
+
+    public long get(long key, long defaultValue) {
+        key = normalize(key);
+        int idx = spread(key) & mask;
+        while (true) {
+            int off = idx * SLOT_BYTES;
+            long k = table.getLong(off);
+            if (k == 0) return defaultValue;
+            if (k == key) return table.getLong(off + 8);
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    public void put(long key, long value) {
+        key = normalize(key);
+        // 负载因子超过 0.7 时扩容
+        if ((size + 1) * 10L > capacity * 7L) {
+            rehash(capacity << 1);
+        }
+        int idx = spread(key) & mask;
+        while (true) {
+            int off = idx * SLOT_BYTES;
+            long k = table.getLong(off);
+            if (k == 0) {
+                table.putLong(off, key);
+                table.putLong(off + 8, value);
+                size++;
+                return;
+            }
+            if (k == key) {
+                table.putLong(off + 8, value);
+                return;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        ByteBuffer old = table;
+        int oldCapacity = capacity;
+        allocate(newCapacity);
+        for (int i = 0; i < oldCapacity; i++) {
+            long k = old.getLong(i * SLOT_BYTES);
+            if (k != 0) put(k, old.getLong(i * SLOT_BYTES + 8));
+        }
+    }
+
+    public void clear() {
+        allocate(16);
+    }
+
+    public int size() { return size; }
+
+    /**
+     * 当前表占用的字节数 (不含对象本身)
+     */
+    public long memoryBytes() { return (long) capacity * SLOT_BYTES; }
+
+    /**
+     * 把整张表复制到 target (容量不同时重新分配)，用于在锁外持久化快照
+     */
+    public void copyTo(LongLongHashMap target) {
+        if (target.capacity != capacity) target.allocate(capacity);
+        ByteBuffer src = table.duplicate();
+        src.clear();
+        ByteBuffer dst = target.table.duplicate();
+        dst.clear();
+        dst.put(src);
+        target.size = size;
+    }
+
+    /**
+     * 将整张表写入文件 (先写临时文件再原子替换，避免写一半时宕机损坏)
+     */
+    public void saveTo(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            header.putLong(FILE_MAGIC).putInt(capacity).putInt(size).flip();
+            while (header.hasRemaining()) ch.write(header);
+            ByteBuffer data = table.duplicate();
+            data.clear();
+            while (data.hasRemaining()) ch.write(data);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 从文件恢复；文件不存在或格式不符时返回 false，表保持不变
+     */
+    public boolean loadFrom(Path file) throws IOException {
+        if (!Files.exists(file)) return false;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            while (header.hasRemaining() && ch.read(header) > 0) { }
+            header.flip();
+            if (header.remaining() < 16 || header.getLong() != FILE_MAGIC) return false;
+            int fileCapacity = header.getInt();
+            int fileSize = header.getInt();
+            if (Integer.bitCount(fileCapacity) != 1 || ch.size() != 16L + (long) fileCapacity * SLOT_BYTES) return false;
+
+            allocate(fileCapacity);
+            ByteBuffer data = table.duplicate();
+            data.clear();
+            while (data.hasRemaining() && ch.read(data) > 0) { }
+            this.size = fileSize;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.lhcz.db2es.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 令牌桶限流器 (线程安全，可多个任务共享)
+ * 允许“先用后还”：令牌不足时仍然放行，但调用方需要休眠到欠账还清为止，
+ * 因此一次申请大量令牌 (如一整页数据行数) 也能被正确限速。最多积攒 1 秒的突发量。
+ */
+public class RateLimiter {
+    private final double permitsPerSecond;
+    private final ReentrantLock lock = new ReentrantLock();
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+
+    public RateLimiter(double permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.tokens = permitsPerSecond;
+    }
+
+    /**
+     * 申请令牌，超出速率时阻塞
+     */
+    public void acquire(long permits) throws InterruptedException {
+        long waitNanos;
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            tokens = Math.min(permitsPerSecond, tokens + (now - lastRefillNanos) / 1e9 * permitsPerSecond);
+            lastRefillNanos = now;
+            tokens -= permits;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / permitsPerSecond * 1e9);
+        } finally {
+            lock.unlock();
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * 非阻塞申请：最多取走 max 个令牌 (不透支)
+     * @return 实际取得的令牌数，可能为 0
+     */
+    public long tryAcquire(long max) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            tokens = Math.min(permitsPerSecond, tokens + (now - lastRefillNanos) / 1e9 * permitsPerSecond);
+            lastRefillNanos = now;
+            long granted = Math.min(max, (long) Math.max(0, tokens));
+            tokens -= granted;
+            return granted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归还预先申请但未使用的令牌 (不超过 1 秒的突发量)
+     */
+    public void refund(long permits) {
+        if (permits <= 0) return;
+        lock.lock();
+        try {
+            tokens = Math.min(permitsPerSecond, tokens + permits);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getPermitsPerSecond() { return permitsPerSecond; }
+}